@@ -1,12 +1,24 @@
 package com.github.hindol.commons.util;
 
 import org.arabidopsis.ahocorasick.AhoCorasick;
-import org.arabidopsis.ahocorasick.SearchResult;
+import org.arabidopsis.ahocorasick.Automaton;
+import org.arabidopsis.ahocorasick.LeftmostSearcher;
+import org.arabidopsis.ahocorasick.MatchFilter;
+import org.arabidopsis.ahocorasick.StreamMatchHandler;
+import org.arabidopsis.ahocorasick.StreamSearcher;
 
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -15,70 +27,267 @@ import java.util.regex.Pattern;
  * cannot change state.
  *
  * Instances of this class can be accessed from multiple threads.
+ *
+ * Needles and haystacks are matched as UTF-8, whatever the platform charset.
+ * Haystacks can be any {@link CharSequence}, a {@link StringBuilder} say; they
+ * are encoded a few kilobytes at a time as the search goes, never copied
+ * whole. Case-insensitive matching folds ASCII inside the automaton and other
+ * characters with simple (one to one) Unicode case folding as they are
+ * encoded, so the haystack is never copied to change its case.
+ *
+ * Whole-word matching checks the characters on either side of each match
+ * against a table of delimiters computed once, when the matcher is built.
+ *
+ * A handful of needles do not need the automaton: up to three are looked for
+ * one at a time with {@link String#indexOf(String)} (or Boyer-Moore-Horspool),
+ * and up to a few dozen short ones with the bit-parallel Shift-And algorithm.
+ * The matcher picks the engine when it is built, from the number and length of
+ * the needles; results are the same whichever it picks.
  */
 public class AhoCorasickMatcher {
 
     private static final Pattern DEFAULT_DELIMITERS = Pattern.compile("\\W");
 
-    private final AhoCorasick mTree;
+    private static final BitSet DEFAULT_DELIMITER_TABLE = delimiterTable(DEFAULT_DELIMITERS);
+
+    // Up to how many needles the simpler engines are used; see AhoCorasickMatcherBenchmark
+    private static final int MAX_INDEX_OF_NEEDLES = 3;
+    private static final int MAX_SHIFT_AND_NEEDLES = 64;
+
+    // Bytes of haystack the automaton is fed at a time
+    private static final int BLOCK_SIZE = 4096;
+
+    private final Engine mEngine;
+
+    // Built on first use, unless the engine is the automaton
+    private volatile Automaton mTree;
+
+    // Needles as the automaton sees them, by pattern id, until it is built
+    private final String[] mNeedles;
+
+    // Output and length in code points of each needle, by pattern id
+    private final Object[] mOutputs;
+    private final int[] mNeedleLengths;
+    private final int mMaxNeedleLength;
 
     // Configuration
     private final boolean mMatchWholeWords;
     private final boolean mCaseInsensitive;
     private final Pattern mDelimiters;
+    private final BitSet mDelimiterTable;
 
-    private AhoCorasickMatcher(Set<String> needles, boolean matchWholeWords,
-                               Pattern delimiters, boolean caseInsensitive) {
-        mTree = new AhoCorasick();
+    private AhoCorasickMatcher(List<String> needles, List<?> outputs, boolean matchWholeWords,
+                               Pattern delimiters, boolean caseInsensitive, boolean offHeap,
+                               boolean automatonOnly) {
         mMatchWholeWords = matchWholeWords;
         mDelimiters = delimiters;
+        mDelimiterTable = matchWholeWords ? delimiterTable(delimiters) : null;
         mCaseInsensitive = caseInsensitive;
 
-        for (String needle : needles) {
-            addNeedle(transform(needle), needle);
+        String[] normalized = new String[needles.size()];
+        mOutputs = outputs.toArray();
+        mNeedleLengths = new int[normalized.length];
+        int maxNeedleLength = 0;
+        for (int patternId = 0; patternId < normalized.length; patternId++) {
+            String needle = transform(needles.get(patternId));
+            if (mCaseInsensitive) {
+                needle = foldCase(needle);
+            }
+            normalized[patternId] = needle;
+            mNeedleLengths[patternId] = needle.codePointCount(0, needle.length());
+            maxNeedleLength = Math.max(maxNeedleLength, mNeedleLengths[patternId]);
         }
+        mMaxNeedleLength = maxNeedleLength;
 
-        mTree.prepare();
+        mEngine = offHeap || automatonOnly ? null : simpleEngine(normalized);
+        if (mEngine == null) {
+            mTree = buildTree(normalized, offHeap);
+            mNeedles = null;
+        } else {
+            mNeedles = normalized;
+        }
     }
 
-    private AhoCorasickMatcher(Map<String, ?> needleOutputMap, boolean matchWholeWords,
-                               Pattern delimiters, boolean caseInsensitive) {
-        mTree = new AhoCorasick();
-        mMatchWholeWords = matchWholeWords;
-        mDelimiters = delimiters;
-        mCaseInsensitive = caseInsensitive;
+    public static Builder builder() {
+        return new Builder();
+    }
 
-        for (Map.Entry<String, ?> entry : needleOutputMap.entrySet()) {
-            addNeedle(transform(entry.getKey()), entry.getValue());
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object rawOutput) {
+        return (T) rawOutput;
+    }
+
+    /**
+     * Pick an engine simpler than the automaton for a small set of needles:
+     * {@link IndexOfEngine} for up to three needles compared char for char,
+     * {@link ShiftAndEngine} for up to 64 short ones. Returns {@code null}
+     * when the automaton is the better choice.
+     */
+    private Engine simpleEngine(String[] needles) {
+        if (needles.length <= MAX_INDEX_OF_NEEDLES && !mMatchWholeWords && !mCaseInsensitive
+                && IndexOfEngine.accepts(needles)) {
+            return new IndexOfEngine(needles);
+        }
+        if (needles.length <= MAX_SHIFT_AND_NEEDLES) {
+            int[][] codePoints = new int[needles.length][];
+            for (int patternId = 0; patternId < needles.length; patternId++) {
+                codePoints[patternId] = needles[patternId].codePoints().map(this::unit).toArray();
+            }
+            if (ShiftAndEngine.accepts(codePoints)) {
+                return new ShiftAndEngine(codePoints, this::unit);
+            }
         }
+        return null;
+    }
 
-        mTree.prepare();
+    private Automaton buildTree(String[] needles, boolean offHeap) {
+        AhoCorasick tree = new AhoCorasick(mCaseInsensitive);
+        for (int patternId = 0; patternId < needles.length; patternId++) {
+            tree.add(needles[patternId].getBytes(StandardCharsets.UTF_8), mOutputs[patternId]);
+        }
+        tree.prepare();
+        return offHeap ? tree.freeze() : tree;
     }
 
-    public static Builder builder() {
-        return new Builder();
+    /**
+     * Evaluate the delimiter pattern once for every character of the Basic
+     * Multilingual Plane, so that searching never has to run the regex.
+     */
+    private static BitSet delimiterTable(Pattern delimiters) {
+        if (delimiters == DEFAULT_DELIMITERS && DEFAULT_DELIMITER_TABLE != null) {
+            return DEFAULT_DELIMITER_TABLE;
+        }
+
+        BitSet table = new BitSet(Character.MAX_VALUE + 1);
+        char[] character = new char[1];
+        CharBuffer buffer = CharBuffer.wrap(character);
+        Matcher matcher = delimiters.matcher(buffer);
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            character[0] = (char) c;
+            if (matcher.reset(buffer).matches()) {
+                table.set(c);
+            }
+        }
+        return table;
     }
 
-    @SuppressWarnings("unchecked")
-    private static <T> Iterator<T> cast(Iterator<?> rawIterator) {
-        return (Iterator<T>) rawIterator;
+    private boolean isDelimiter(int codePoint) {
+        if (codePoint <= Character.MAX_VALUE) {
+            return mDelimiterTable.get(codePoint);
+        }
+        return mDelimiters.matcher(new String(Character.toChars(codePoint))).matches();
     }
 
-    @SuppressWarnings("unchecked")
-    private static <T> Set<T> cast(Set<?> rawSet) {
-        return (Set<T>) rawSet;
+    /**
+     * When matching whole words, every delimiter in a needle or a haystack is
+     * treated as a plain space.
+     */
+    private int transform(int codePoint) {
+        if (mMatchWholeWords && isDelimiter(codePoint)) {
+            return ' ';
+        }
+        return codePoint;
     }
 
     private String transform(String input) {
-        if (mMatchWholeWords) {
-            input = " " + mDelimiters.matcher(input).replaceAll(" ") + " ";
+        StringBuilder transformed = new StringBuilder(input.length());
+        for (int i = 0; i < input.length(); ) {
+            int codePoint = input.codePointAt(i);
+            transformed.appendCodePoint(transform(codePoint));
+            i += Character.charCount(codePoint);
         }
+        return transformed.toString(); // Transformed input
+    }
 
-        if (mCaseInsensitive) {
-            input = input.toLowerCase();
+    /**
+     * Check that the needle that ends at {@code end} has a delimiter (or
+     * nothing at all) on either side of it.
+     */
+    boolean isWholeWord(CharSequence haystack, int end, int patternId) {
+        int start = Character.offsetByCodePoints(haystack, end, -mNeedleLengths[patternId]);
+
+        return (start == 0 || isDelimiter(Character.codePointBefore(haystack, start)))
+                && (end == haystack.length() || isDelimiter(Character.codePointAt(haystack, end)));
+    }
+
+    /**
+     * Simple case folding of a single code point.
+     */
+    private static int foldCase(int codePoint) {
+        return Character.toLowerCase(Character.toUpperCase(codePoint));
+    }
+
+    private static String foldCase(String input) {
+        StringBuilder folded = new StringBuilder(input.length());
+        for (int i = 0; i < input.length(); ) {
+            int codePoint = input.codePointAt(i);
+            folded.appendCodePoint(foldCase(codePoint));
+            i += Character.charCount(codePoint);
+        }
+        return folded.toString();
+    }
+
+    /**
+     * Write the UTF-8 encoding of one code point and return its length. Lone
+     * surrogates become '?', like {@link String#getBytes} does.
+     */
+    static int encode(int codePoint, byte[] utf8) {
+        return encode(codePoint, utf8, 0);
+    }
+
+    /**
+     * Like {@link #encode(int, byte[])}, writing at {@code off}.
+     */
+    static int encode(int codePoint, byte[] utf8, int off) {
+        if (codePoint < 0x80) {
+            utf8[off] = (byte) codePoint;
+            return 1;
+        } else if (codePoint < 0x800) {
+            utf8[off] = (byte) (0xC0 | (codePoint >> 6));
+            utf8[off + 1] = (byte) (0x80 | (codePoint & 0x3F));
+            return 2;
+        } else if (Character.isSurrogate((char) codePoint) && codePoint < 0x10000) {
+            utf8[off] = (byte) '?';
+            return 1;
+        } else if (codePoint < 0x10000) {
+            utf8[off] = (byte) (0xE0 | (codePoint >> 12));
+            utf8[off + 1] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            utf8[off + 2] = (byte) (0x80 | (codePoint & 0x3F));
+            return 3;
+        } else {
+            utf8[off] = (byte) (0xF0 | (codePoint >> 18));
+            utf8[off + 1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            utf8[off + 2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            utf8[off + 3] = (byte) (0x80 | (codePoint & 0x3F));
+            return 4;
+        }
+    }
+
+    /**
+     * The code point the automaton sees in place of the given one.
+     */
+    int normalize(int codePoint) {
+        codePoint = transform(codePoint);
+        if (mCaseInsensitive && codePoint >= 0x80) {
+            codePoint = foldCase(codePoint);
         }
+        return codePoint;
+    }
 
-        return input; // Transformed input
+    /**
+     * The code point the simpler engines compare in place of the given one:
+     * the one the automaton sees, with ASCII folded as the automaton does, and
+     * lone surrogates turned to '?' as {@link #encode} does.
+     */
+    int unit(int codePoint) {
+        codePoint = normalize(codePoint);
+        if (mCaseInsensitive && codePoint >= 'A' && codePoint <= 'Z') {
+            return codePoint + ('a' - 'A');
+        }
+        if (codePoint < 0x10000 && Character.isSurrogate((char) codePoint)) {
+            return '?';
+        }
+        return codePoint;
     }
 
     /**
@@ -87,32 +296,513 @@ public class AhoCorasickMatcher {
      * @param haystack The haystack.
      * @return An iterable object where each next() moves on to the next needle.
      */
-    public <T> Set<T> searchIn(String haystack) {
+    public <T> Set<T> searchIn(CharSequence haystack) {
         Set<T> outputs = new HashSet<>();
 
-        Iterator<SearchResult> iter = cast(
-                mTree.search(transform(haystack).getBytes())
-        );
-
-        while (iter.hasNext()) {
-            SearchResult result = iter.next();
-            outputs.addAll(
-                    cast(result.getOutputs())
-            );
-        }
+        searchIn(haystack, (T output) -> {
+            outputs.add(output);
+            return true;
+        });
 
         return outputs;
     }
 
     /**
-     * Add a string that needs to be searched in our haystack.
-     * See {@link #searchIn(String)}
+     * Report every occurrence of every needle in the provided haystack to the
+     * listener, as it is found. No result objects are created along the way.
+     *
+     * @param haystack The haystack.
+     * @param listener Receives the output of each needle found.
+     * @return {@code false} if the listener stopped the search early.
+     */
+    public <T> boolean searchIn(CharSequence haystack, Listener<T> listener) {
+        return scan(haystack, (int patternId, int end) -> listener.onMatch(cast(mOutputs[patternId])));
+    }
+
+    /**
+     * Check whether any needle occurs in the provided haystack. The search
+     * stops at the first match.
+     *
+     * @param haystack The haystack.
+     * @return {@code true} if at least one needle was found.
+     */
+    public boolean containsAny(CharSequence haystack) {
+        return !scan(haystack, (int patternId, int end) -> false);
+    }
+
+    /**
+     * Find the needle that ends first in the provided haystack. The search
+     * stops there.
+     *
+     * @param haystack The haystack.
+     * @return The output of that needle, or {@code null} if none was found.
+     */
+    public <T> T firstMatch(CharSequence haystack) {
+        int[] first = {-1};
+
+        scan(haystack, (int patternId, int end) -> {
+            first[0] = patternId;
+            return false;
+        });
+
+        return first[0] < 0 ? null : cast(mOutputs[first[0]]);
+    }
+
+    /**
+     * Count every occurrence of every needle in the provided haystack,
+     * overlapping ones included.
+     *
+     * @param haystack The haystack.
+     * @return The number of matches.
+     */
+    public int countMatches(CharSequence haystack) {
+        int[] count = {0};
+
+        scan(haystack, (int patternId, int end) -> {
+            count[0]++;
+            return true;
+        });
+
+        return count[0];
+    }
+
+    /**
+     * Find every occurrence of every needle in the provided haystack, with
+     * where it starts and ends. Spans are ordered by their end, and those that
+     * end together by the length of their needle, longest first.
+     *
+     * @param haystack The haystack.
+     * @return The spans found, as {@code char} indices into the haystack.
+     */
+    public <T> List<Span<T>> spans(CharSequence haystack) {
+        return spans(haystack, MatchKind.ALL);
+    }
+
+    /**
+     * Find the occurrences of needles in the provided haystack that the given
+     * kind of matching picks. See {@link MatchKind}.
      *
-     * @param needle The needle.
-     * @param output The output to produce when this needle is found.
+     * @param haystack The haystack.
+     * @param kind     Which matches to keep.
+     * @return The spans found, as {@code char} indices into the haystack.
      */
-    private void addNeedle(String needle, Object output) {
-        mTree.add(needle.getBytes(), output);
+    public <T> List<Span<T>> spans(CharSequence haystack, MatchKind kind) {
+        List<Span<T>> spans = new ArrayList<>();
+        Hits hits = (int patternId, int end) -> {
+            int start = Character.offsetByCodePoints(haystack, end, -mNeedleLengths[patternId]);
+            spans.add(new Span<>(start, end, cast(mOutputs[patternId])));
+            return true;
+        };
+
+        if (kind == MatchKind.ALL) {
+            scan(haystack, hits);
+        } else {
+            scanLeftmost(haystack, kind == MatchKind.LEFTMOST_LONGEST, hits);
+        }
+
+        return spans;
+    }
+
+    private boolean scan(CharSequence haystack, Hits hits) {
+        if (mMatchWholeWords) {
+            Hits all = hits;
+            hits = (int patternId, int end) -> !isWholeWord(haystack, end, patternId) || all.onMatch(patternId, end);
+        }
+        return mEngine == null ? scanTree(haystack, hits) : mEngine.scan(haystack, hits);
+    }
+
+    private boolean scanTree(CharSequence haystack, Hits hits) {
+        StreamSearcher searcher = mTree.newStreamSearcher();
+        Blocks blocks = new Blocks(haystack, 0);
+        Scan scan = new Scan(blocks, hits);
+
+        while (blocks.next()) {
+            if (!searcher.feed(blocks.mBytes, 0, blocks.mLength, scan)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    boolean scanLeftmost(CharSequence haystack, boolean longest, Hits hits) {
+        if (mEngine != null) {
+            LeftmostSelection selection = new LeftmostSelection(haystack, longest, hits);
+            return scan(haystack, selection) && selection.finish();
+        }
+
+        // A match is settled at most maxKeywordLength bytes after it ends
+        Blocks blocks = new Blocks(haystack, mTree.maxKeywordLength());
+        LeftmostScan scan = new LeftmostScan(blocks, hits);
+        LeftmostSearcher searcher = mTree.newLeftmostSearcher(longest, mMatchWholeWords ? scan : null);
+
+        while (blocks.next()) {
+            if (!searcher.feed(blocks.mBytes, 0, blocks.mLength, scan)) {
+                return false;
+            }
+        }
+
+        return searcher.finish(scan);
+    }
+
+    /**
+     * Hand the matches the given kind of matching picks to {@code hits}, as
+     * {@link #spans(CharSequence, MatchKind)} would, but only of the needles
+     * {@code accepts} takes: the leftmost kinds choose among those alone.
+     */
+    boolean scan(CharSequence haystack, MatchKind kind, IntPredicate accepts, Hits hits) {
+        if (kind == MatchKind.ALL) {
+            return scan(haystack, (int patternId, int end) -> !accepts.test(patternId) || hits.onMatch(patternId, end));
+        }
+
+        LeftmostSelection selection = new LeftmostSelection(haystack, kind == MatchKind.LEFTMOST_LONGEST, hits);
+        return scan(haystack, (int patternId, int end) -> !accepts.test(patternId) || selection.onMatch(patternId, end))
+                && selection.finish();
+    }
+
+    /**
+     * The automaton, built now if the matcher was using a simpler engine.
+     */
+    Automaton tree() {
+        Automaton tree = mTree;
+        if (tree == null) {
+            synchronized (this) {
+                if (mTree == null) {
+                    mTree = buildTree(mNeedles, false);
+                }
+                tree = mTree;
+            }
+        }
+        return tree;
+    }
+
+    Engine engine() {
+        return mEngine;
+    }
+
+    Object output(int patternId) {
+        return mOutputs[patternId];
+    }
+
+    boolean matchesWholeWords() {
+        return mMatchWholeWords;
+    }
+
+    /**
+     * Length in code points of the needle with the given pattern id.
+     */
+    int needleLength(int patternId) {
+        return mNeedleLengths[patternId];
+    }
+
+    /**
+     * Receives the matches of one search, by pattern id and the index just past
+     * the match in the haystack.
+     */
+    interface Hits {
+
+        boolean onMatch(int patternId, int end);
+    }
+
+    /**
+     * Finds every occurrence of every needle in a haystack, and hands them to
+     * its {@link Hits} in the order the automaton would: by where they end,
+     * those that end together longest first, then by pattern id.
+     */
+    interface Engine {
+
+        boolean scan(CharSequence haystack, Hits hits);
+    }
+
+    /**
+     * Encodes a haystack for the automaton a block of UTF-8 at a time, so that
+     * a search feeds it whole blocks rather than single characters. For each
+     * byte encoded, the {@code char} index just past its character is kept in
+     * a ring, long enough to look it up until {@code reach} bytes after the
+     * block it is in.
+     */
+    private class Blocks {
+
+        private final CharSequence mHaystack;
+        private final int mBlockSize;
+        private final int[] mCharEnds;
+
+        // The block, and where it starts in the encoded haystack
+        final byte[] mBytes;
+        int mLength;
+        private long mPosition;
+
+        // The char index to encode from next
+        private int mNext;
+
+        Blocks(CharSequence haystack, int reach) {
+            mHaystack = haystack;
+            // No char takes more than three bytes, and the last one of a block may overrun it by three
+            mBlockSize = Math.min(BLOCK_SIZE, 3 * haystack.length());
+            mBytes = new byte[mBlockSize + 3];
+            mCharEnds = new int[Integer.highestOneBit(mBlockSize + 3 + reach) << 1];
+        }
+
+        /**
+         * Encode the next block.
+         *
+         * @return {@code false} if the haystack was all encoded already.
+         */
+        boolean next() {
+            mPosition += mLength;
+            mLength = 0;
+            int mask = mCharEnds.length - 1;
+
+            while (mLength < mBlockSize && mNext < mHaystack.length()) {
+                int codePoint = Character.codePointAt(mHaystack, mNext);
+                mNext += Character.charCount(codePoint);
+
+                int end = mLength + encode(normalize(codePoint), mBytes, mLength);
+                for (; mLength < end; mLength++) {
+                    mCharEnds[(int) (mPosition + mLength) & mask] = mNext;
+                }
+            }
+
+            return mLength > 0;
+        }
+
+        /**
+         * The {@code char} index just past the character of the byte before
+         * the given position.
+         */
+        int charEnd(long lastIndex) {
+            return mCharEnds[(int) (lastIndex - 1) & (mCharEnds.length - 1)];
+        }
+    }
+
+    /**
+     * Hands the matches of one search with the automaton over to its
+     * {@link Hits}.
+     */
+    private static class Scan implements StreamMatchHandler {
+
+        private final Blocks mBlocks;
+        private final Hits mHits;
+
+        Scan(Blocks blocks, Hits hits) {
+            mBlocks = blocks;
+            mHits = hits;
+        }
+
+        @Override
+        public boolean onMatch(int patternId, long lastIndex) {
+            return mHits.onMatch(patternId, mBlocks.charEnd(lastIndex));
+        }
+    }
+
+    /**
+     * Picks the leftmost matches out of every match an engine other than the
+     * automaton finds, which come ordered by their end. The best match pending
+     * is settled once matches come in that end too far to its right to start
+     * at or before it.
+     */
+    private class LeftmostSelection implements Hits {
+
+        private final CharSequence mHaystack;
+        private final boolean mLongest;
+        private final Hits mHits;
+
+        // The most chars a match can span
+        private final int mReach;
+
+        // Matches that start at or after mPosition, not settled yet
+        private int[] mStarts = new int[16];
+        private int[] mEnds = new int[16];
+        private int[] mPatternIds = new int[16];
+        private int mCount;
+        private int mPosition;
+
+        LeftmostSelection(CharSequence haystack, boolean longest, Hits hits) {
+            mHaystack = haystack;
+            mLongest = longest;
+            mHits = hits;
+            mReach = 2 * mMaxNeedleLength;
+        }
+
+        @Override
+        public boolean onMatch(int patternId, int end) {
+            if (!settle(end - mReach)) {
+                return false;
+            }
+            int start = Character.offsetByCodePoints(mHaystack, end, -mNeedleLengths[patternId]);
+            if (start < mPosition) {
+                return true;
+            }
+
+            if (mCount == mStarts.length) {
+                mStarts = Arrays.copyOf(mStarts, mCount * 2);
+                mEnds = Arrays.copyOf(mEnds, mCount * 2);
+                mPatternIds = Arrays.copyOf(mPatternIds, mCount * 2);
+            }
+            mStarts[mCount] = start;
+            mEnds[mCount] = end;
+            mPatternIds[mCount++] = patternId;
+            return true;
+        }
+
+        boolean finish() {
+            return settle(Integer.MAX_VALUE);
+        }
+
+        /**
+         * Report the best pending match for as long as it starts before
+         * {@code limit}, where no match still to come can start.
+         */
+        private boolean settle(int limit) {
+            while (true) {
+                int best = -1;
+                for (int k = 0; k < mCount; k++) {
+                    if (best < 0 || beats(k, best)) {
+                        best = k;
+                    }
+                }
+                if (best < 0 || mStarts[best] >= limit) {
+                    return true;
+                }
+                if (!mHits.onMatch(mPatternIds[best], mEnds[best])) {
+                    return false;
+                }
+
+                mPosition = mEnds[best];
+                int kept = 0;
+                for (int k = 0; k < mCount; k++) {
+                    if (mStarts[k] >= mPosition) {
+                        mStarts[kept] = mStarts[k];
+                        mEnds[kept] = mEnds[k];
+                        mPatternIds[kept++] = mPatternIds[k];
+                    }
+                }
+                mCount = kept;
+            }
+        }
+
+        private boolean beats(int a, int b) {
+            if (mStarts[a] != mStarts[b]) {
+                return mStarts[a] < mStarts[b];
+            }
+            if (mLongest && mEnds[a] != mEnds[b]) {
+                return mEnds[a] > mEnds[b];
+            }
+            return mPatternIds[a] < mPatternIds[b];
+        }
+    }
+
+    /**
+     * Hands the matches of a leftmost search over to its {@link Hits}. Matches
+     * are settled a few bytes after they end, up to a block later, which the
+     * {@link Blocks} of the search keeps the {@code char} indices for.
+     */
+    private class LeftmostScan implements StreamMatchHandler, MatchFilter {
+
+        private final Blocks mBlocks;
+        private final Hits mHits;
+
+        LeftmostScan(Blocks blocks, Hits hits) {
+            mBlocks = blocks;
+            mHits = hits;
+        }
+
+        @Override
+        public boolean accept(int patternId, long lastIndex) {
+            return isWholeWord(mBlocks.mHaystack, mBlocks.charEnd(lastIndex), patternId);
+        }
+
+        @Override
+        public boolean onMatch(int patternId, long lastIndex) {
+            return mHits.onMatch(patternId, mBlocks.charEnd(lastIndex));
+        }
+    }
+
+    /**
+     * Which matches a search reports.
+     */
+    public enum MatchKind {
+
+        /**
+         * Every occurrence of every needle, overlapping ones included.
+         */
+        ALL,
+
+        /**
+         * Non-overlapping matches, scanning left to right: the match that
+         * starts first wins and, of those that start together, the longest.
+         */
+        LEFTMOST_LONGEST,
+
+        /**
+         * Like {@link #LEFTMOST_LONGEST}, but of the matches that start
+         * together, the needle that comes first wins. Needles come in the
+         * iteration order of the set or map the matcher was built from.
+         */
+        LEFTMOST_FIRST
+    }
+
+    /**
+     * Receives matches from {@link #searchIn(CharSequence, Listener)}.
+     */
+    public interface Listener<T> {
+
+        /**
+         * @param output The output of the needle found.
+         * @return {@code false} to stop the search.
+         */
+        boolean onMatch(T output);
+    }
+
+    /**
+     * One occurrence of a needle: the {@code char} indices where it starts
+     * (inclusive) and ends (exclusive) in the haystack, and its output.
+     */
+    public static final class Span<T> {
+
+        private final int mStart;
+        private final int mEnd;
+        private final T mOutput;
+
+        public Span(int start, int end, T output) {
+            mStart = start;
+            mEnd = end;
+            mOutput = output;
+        }
+
+        public int getStart() {
+            return mStart;
+        }
+
+        public int getEnd() {
+            return mEnd;
+        }
+
+        public T getOutput() {
+            return mOutput;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Span)) {
+                return false;
+            }
+            Span<?> span = (Span<?>) o;
+            return mStart == span.mStart && mEnd == span.mEnd && Objects.equals(mOutput, span.mOutput);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mStart, mEnd, mOutput);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + mStart + ", " + mEnd + ") " + mOutput;
+        }
     }
 
     public static class Builder {
@@ -120,6 +810,8 @@ public class AhoCorasickMatcher {
         private boolean mMatchWholeWords = false;
         private boolean mCaseInsensitive = false;
         private Pattern mDelimiters = DEFAULT_DELIMITERS;
+        private boolean mOffHeap = false;
+        private boolean mAutomatonOnly = false;
 
         public Builder matchWholeWords() {
             mMatchWholeWords = true;
@@ -140,15 +832,40 @@ public class AhoCorasickMatcher {
             return this;
         }
 
+        /**
+         * Keep the automaton in direct buffers, outside the Java heap, once it
+         * is built. Worth it for very large needle sets, where it takes the
+         * automaton out of the way of the garbage collector.
+         */
+        public Builder offHeap() {
+            mOffHeap = true;
+            return this;
+        }
+
+        /**
+         * Always search with the automaton, whatever the needles. For tests.
+         */
+        Builder automatonOnly() {
+            mAutomatonOnly = true;
+            return this;
+        }
+
         public AhoCorasickMatcher build(Set<String> needles) {
+            List<String> list = new ArrayList<>(needles);
             return new AhoCorasickMatcher(
-                    needles, mMatchWholeWords, mDelimiters, mCaseInsensitive
+                    list, list, mMatchWholeWords, mDelimiters, mCaseInsensitive, mOffHeap, mAutomatonOnly
             );
         }
 
         public AhoCorasickMatcher build(Map<String, ?> needleOutputMap) {
+            List<String> needles = new ArrayList<>(needleOutputMap.size());
+            List<Object> outputs = new ArrayList<>(needleOutputMap.size());
+            for (Map.Entry<String, ?> entry : needleOutputMap.entrySet()) {
+                needles.add(entry.getKey());
+                outputs.add(entry.getValue());
+            }
             return new AhoCorasickMatcher(
-                    needleOutputMap, mMatchWholeWords, mDelimiters, mCaseInsensitive
+                    needles, outputs, mMatchWholeWords, mDelimiters, mCaseInsensitive, mOffHeap, mAutomatonOnly
             );
         }
     }
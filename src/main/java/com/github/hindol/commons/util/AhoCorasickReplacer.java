@@ -0,0 +1,394 @@
+package com.github.hindol.commons.util;
+
+import org.arabidopsis.ahocorasick.LeftmostSearcher;
+import org.arabidopsis.ahocorasick.MatchFilter;
+import org.arabidopsis.ahocorasick.StreamMatchHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites or masks many needles in one pass over the input, instead of one
+ * pass per needle. Matches are chosen leftmost-longest (see
+ * {@link AhoCorasickMatcher.MatchKind#LEFTMOST_LONGEST}), so they never
+ * overlap, and the text between them is copied as is.
+ *
+ * Besides {@link #replaceAll(CharSequence)}, a replacer can wrap a
+ * {@link Writer} or an {@link OutputStream}; the wrapper holds back only the
+ * last few characters written, those that could still be part of a match, and
+ * writes out the rest as it goes. Close the wrapper to write out the tail.
+ *
+ * Instances of this class can be accessed from multiple threads; the wrappers
+ * they create cannot.
+ */
+public class AhoCorasickReplacer {
+
+    private final AhoCorasickMatcher mMatcher;
+
+    // Replacement of each needle, by pattern id; null when masking
+    private final String[] mReplacements;
+    private final char mMask;
+
+    private AhoCorasickReplacer(AhoCorasickMatcher matcher, String[] replacements, char mask) {
+        mMatcher = matcher;
+        mReplacements = replacements;
+        mMask = mask;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Replace every occurrence of the keys of the map in the input with the
+     * corresponding value. Builds a new replacer on each call; keep one around
+     * to replace in many inputs.
+     *
+     * @param input        The input.
+     * @param replacements Maps each needle to its replacement.
+     * @return The input with the needles replaced.
+     */
+    public static String replaceAll(CharSequence input, Map<String, String> replacements) {
+        return builder().build(replacements).replaceAll(input);
+    }
+
+    /**
+     * Replace every needle found in the input.
+     *
+     * @param input The input.
+     * @return The input with the needles replaced.
+     */
+    public String replaceAll(CharSequence input) {
+        StringBuilder output = new StringBuilder(input.length());
+        int[] copied = {0};
+
+        mMatcher.scanLeftmost(input, true, (int patternId, int end) -> {
+            int start = Character.offsetByCodePoints(input, end, -mMatcher.needleLength(patternId));
+            output.append(input, copied[0], start);
+            appendReplacement(output, patternId);
+            copied[0] = end;
+            return true;
+        });
+
+        return output.append(input, copied[0], input.length()).toString();
+    }
+
+    /**
+     * Wrap a writer so that everything written through it has the needles
+     * replaced.
+     *
+     * @param out The writer to write the result to.
+     * @return A writer that must be closed, which also closes {@code out}.
+     */
+    public Writer wrap(Writer out) {
+        return new ReplacingWriter(out);
+    }
+
+    /**
+     * Wrap an output stream so that everything written through it has the
+     * needles replaced. Bytes are decoded with the given charset, and the
+     * result encoded with it again; malformed input is replaced by the
+     * charset's default replacement.
+     *
+     * @param out     The stream to write the result to.
+     * @param charset The charset of the bytes written.
+     * @return A stream that must be closed, which also closes {@code out}.
+     */
+    public OutputStream wrap(OutputStream out, Charset charset) {
+        return new DecodingOutputStream(wrap(new OutputStreamWriter(out, charset)), charset);
+    }
+
+    private void appendReplacement(StringBuilder output, int patternId) {
+        if (mReplacements != null) {
+            output.append(mReplacements[patternId]);
+        } else {
+            for (int i = mMatcher.needleLength(patternId); i > 0; i--) {
+                output.append(mMask);
+            }
+        }
+    }
+
+    /**
+     * Keeps the characters written that have not been settled yet in a buffer,
+     * and feeds them to a {@link LeftmostSearcher} one character behind the
+     * writer, so that a whole-word check can always look at the character
+     * after a match.
+     */
+    private class ReplacingWriter extends Writer implements StreamMatchHandler, MatchFilter {
+
+        private final Writer mOut;
+        private final LeftmostSearcher mSearcher;
+        private final byte[] mUtf8 = new byte[4];
+        private final StringBuilder mReplacement = new StringBuilder();
+
+        // Characters kept back, the first of which is at index mBase of the whole text
+        private final StringBuilder mBuffer = new StringBuilder();
+        private long mBase;
+
+        // Index of the first character not yet fed, and of the first not yet written out
+        private long mFed;
+        private long mWritten;
+
+        // Index just past the character of each of the last bytes fed
+        private final long[] mCharEnds;
+
+        // How many characters before mFed may still be part of a match
+        private final int mHorizon;
+
+        private IOException mFailure;
+        private boolean mClosed;
+
+        ReplacingWriter(Writer out) {
+            int maxKeywordLength = mMatcher.tree().maxKeywordLength();
+
+            mOut = out;
+            mSearcher = mMatcher.tree().newLeftmostSearcher(true, mMatcher.matchesWholeWords() ? this : null);
+            // The bytes of the character being fed are marked before a match is settled
+            mCharEnds = new long[Integer.highestOneBit(maxKeywordLength + 4) << 1];
+            // One more character, surrogate pair included, for the whole-word check before a match
+            mHorizon = maxKeywordLength + 2;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            ensureOpen();
+            mBuffer.append(cbuf, off, len);
+            feed(false);
+            release();
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            ensureOpen();
+            mBuffer.append(str, off, off + len);
+            feed(false);
+            release();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                feed(true);
+                if (!mSearcher.finish(this)) {
+                    throw mFailure;
+                }
+                mOut.append(mBuffer, (int) (mWritten - mBase), mBuffer.length());
+            } finally {
+                mOut.close();
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (mClosed) {
+                throw new IOException("Writer closed");
+            }
+        }
+
+        /**
+         * Feed every whole character that has another one after it or, at the
+         * end of the input, every character left.
+         */
+        private void feed(boolean last) throws IOException {
+            int length = mBuffer.length();
+            for (int i = (int) (mFed - mBase); i < length; ) {
+                int codePoint = Character.codePointAt(mBuffer, i);
+                int next = i + Character.charCount(codePoint);
+                if (!last && (next >= length
+                        || Character.isHighSurrogate(mBuffer.charAt(next)) && next + 1 == length)) {
+                    break;
+                }
+
+                int bytes = AhoCorasickMatcher.encode(mMatcher.normalize(codePoint), mUtf8);
+                long position = mSearcher.position();
+                for (int k = 0; k < bytes; k++) {
+                    mCharEnds[(int) (position + k) & (mCharEnds.length - 1)] = mBase + next;
+                }
+                mFed = mBase + next;
+                if (!mSearcher.feed(mUtf8, 0, bytes, this)) {
+                    throw mFailure;
+                }
+                i = next;
+            }
+        }
+
+        /**
+         * Write out the characters that can no longer be part of a match, and
+         * forget those that are no longer needed either.
+         */
+        private void release() throws IOException {
+            long safe = mFed - mHorizon;
+            if (safe > mWritten) {
+                mOut.append(mBuffer, (int) (mWritten - mBase), (int) (safe - mBase));
+                mWritten = safe;
+            }
+            long drop = Math.min(mWritten, safe);
+            if (drop > mBase) {
+                mBuffer.delete(0, (int) (drop - mBase));
+                mBase = drop;
+            }
+        }
+
+        private int charEnd(long lastIndex) {
+            return (int) (mCharEnds[(int) (lastIndex - 1) & (mCharEnds.length - 1)] - mBase);
+        }
+
+        @Override
+        public boolean accept(int patternId, long lastIndex) {
+            return mMatcher.isWholeWord(mBuffer, charEnd(lastIndex), patternId);
+        }
+
+        @Override
+        public boolean onMatch(int patternId, long lastIndex) {
+            int end = charEnd(lastIndex);
+            int start = Character.offsetByCodePoints(mBuffer, end, -mMatcher.needleLength(patternId));
+
+            mReplacement.setLength(0);
+            mReplacement.append(mBuffer, (int) (mWritten - mBase), start);
+            appendReplacement(mReplacement, patternId);
+            try {
+                mOut.append(mReplacement);
+            } catch (IOException e) {
+                mFailure = e;
+                return false;
+            }
+            mWritten = mBase + end;
+            return true;
+        }
+    }
+
+    /**
+     * Decodes the bytes written to it and hands the characters to a writer.
+     */
+    private static class DecodingOutputStream extends OutputStream {
+
+        private final Writer mOut;
+        private final CharsetDecoder mDecoder;
+        private final ByteBuffer mBytes = ByteBuffer.allocate(8192);
+        private final CharBuffer mChars = CharBuffer.allocate(8192);
+
+        DecodingOutputStream(Writer out, Charset charset) {
+            mOut = out;
+            mDecoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, mBytes.remaining());
+                mBytes.put(b, off, n);
+                off += n;
+                len -= n;
+
+                ((Buffer) mBytes).flip();
+                decode(false);
+                mBytes.compact();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                ((Buffer) mBytes).flip();
+                decode(true);
+                while (mDecoder.flush(mChars).isOverflow()) {
+                    drain();
+                }
+                drain();
+            } finally {
+                mOut.close();
+            }
+        }
+
+        private void decode(boolean endOfInput) throws IOException {
+            CoderResult result;
+            do {
+                result = mDecoder.decode(mBytes, mChars, endOfInput);
+                drain();
+            } while (result.isOverflow());
+        }
+
+        private void drain() throws IOException {
+            ((Buffer) mChars).flip();
+            mOut.write(mChars.array(), mChars.arrayOffset() + mChars.position(), mChars.remaining());
+            ((Buffer) mChars).clear();
+        }
+    }
+
+    public static class Builder {
+
+        private final AhoCorasickMatcher.Builder mMatcherBuilder = AhoCorasickMatcher.builder();
+
+        public Builder matchWholeWords() {
+            mMatcherBuilder.matchWholeWords();
+            return this;
+        }
+
+        public Builder withDelimiters(String delimiters) {
+            mMatcherBuilder.withDelimiters(delimiters);
+            return this;
+        }
+
+        public Builder withDelimiters(Pattern delimiters) {
+            mMatcherBuilder.withDelimiters(delimiters);
+            return this;
+        }
+
+        public Builder caseInsensitive() {
+            mMatcherBuilder.caseInsensitive();
+            return this;
+        }
+
+        /**
+         * @param replacements Maps each needle to its replacement.
+         */
+        public AhoCorasickReplacer build(Map<String, String> replacements) {
+            AhoCorasickMatcher matcher = mMatcherBuilder.build(replacements);
+            String[] byId = new String[replacements.size()];
+            Arrays.setAll(byId, patternId -> (String) matcher.output(patternId));
+            return new AhoCorasickReplacer(matcher, byId, '\0');
+        }
+
+        /**
+         * @param needles The needles to mask.
+         * @param mask    Replaces every character of a needle found.
+         */
+        public AhoCorasickReplacer mask(Set<String> needles, char mask) {
+            return new AhoCorasickReplacer(mMatcherBuilder.build(needles), null, mask);
+        }
+    }
+}
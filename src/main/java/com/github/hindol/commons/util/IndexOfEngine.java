@@ -0,0 +1,115 @@
+package com.github.hindol.commons.util;
+
+/**
+ * Finds a handful of needles by looking for each one on its own, with
+ * {@link String#indexOf(String, int)} when the haystack is a {@link String}
+ * and Boyer-Moore-Horspool otherwise, and merges the occurrences by where they
+ * end. Only for needles that are compared char for char: case-sensitive, not
+ * whole words, and free of surrogates and of the '?' that the automaton would
+ * also match against a lone surrogate.
+ */
+class IndexOfEngine implements AhoCorasickMatcher.Engine {
+
+    private final String[] mNeedles;
+
+    // Boyer-Moore-Horspool shift of each needle, by the low byte of a char
+    private final int[][] mShifts;
+
+    /**
+     * @param needles The needles, by pattern id.
+     */
+    IndexOfEngine(String[] needles) {
+        mNeedles = needles;
+        mShifts = new int[needles.length][];
+        for (int k = 0; k < needles.length; k++) {
+            String needle = needles[k];
+            int[] shift = new int[256];
+            for (int c = 0; c < 256; c++) {
+                shift[c] = needle.length();
+            }
+            for (int j = 0; j < needle.length() - 1; j++) {
+                shift[needle.charAt(j) & 0xFF] = needle.length() - 1 - j;
+            }
+            mShifts[k] = shift;
+        }
+    }
+
+    /**
+     * Whether the given needles, as the automaton would see them, can be
+     * searched for with this engine.
+     */
+    static boolean accepts(String[] needles) {
+        for (String needle : needles) {
+            if (needle.isEmpty() || needle.indexOf('?') >= 0) {
+                return false;
+            }
+            for (int i = 0; i < needle.length(); i++) {
+                if (Character.isSurrogate(needle.charAt(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean scan(CharSequence haystack, AhoCorasickMatcher.Hits hits) {
+        int count = mNeedles.length;
+        int[] next = new int[count];
+        for (int k = 0; k < count; k++) {
+            next[k] = find(haystack, k, 0);
+        }
+
+        while (true) {
+            // The next match to end; of those that end together, the longest
+            int first = -1;
+            int firstEnd = 0;
+            for (int k = 0; k < count; k++) {
+                if (next[k] < 0) {
+                    continue;
+                }
+                int end = next[k] + mNeedles[k].length();
+                if (first < 0 || end < firstEnd
+                        || end == firstEnd && mNeedles[k].length() > mNeedles[first].length()) {
+                    first = k;
+                    firstEnd = end;
+                }
+            }
+            if (first < 0) {
+                return true;
+            }
+            if (!hits.onMatch(first, firstEnd)) {
+                return false;
+            }
+            next[first] = find(haystack, first, next[first] + 1);
+        }
+    }
+
+    /**
+     * Index of the first occurrence of needle {@code k} at or after
+     * {@code from}, or -1.
+     */
+    private int find(CharSequence haystack, int k, int from) {
+        String needle = mNeedles[k];
+        if (haystack instanceof String) {
+            return ((String) haystack).indexOf(needle, from);
+        }
+
+        int[] shift = mShifts[k];
+        int last = needle.length() - 1;
+        for (int i = from; i + last < haystack.length(); ) {
+            char c = haystack.charAt(i + last);
+            if (c == needle.charAt(last)) {
+                int j = last - 1;
+                while (j >= 0 && haystack.charAt(i + j) == needle.charAt(j)) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += shift[c & 0xFF];
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,329 @@
+package com.github.hindol.commons.util;
+
+import org.arabidopsis.ahocorasick.StreamMatchHandler;
+import org.arabidopsis.ahocorasick.TokenAhoCorasick;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds multi-word phrases in text, word by word. Phrases and haystacks are
+ * split into words the same way, each word the phrases use gets an id, and a
+ * {@link TokenAhoCorasick} over those ids does the matching: one step per word
+ * of the haystack rather than one per byte, and a phrase can only start and
+ * end on word boundaries, with no whole-word check afterwards.
+ *
+ * A word is a maximal run of letters, digits and combining marks; everything
+ * else separates words, however much of it there is, so "New York" also
+ * matches "new-york" and "new, york" when case is ignored. Case-insensitive
+ * matching uses simple (one to one) Unicode case folding. Words of the
+ * haystack are looked up without being copied, and words no phrase uses send
+ * the automaton back to its root.
+ *
+ * Instances of this class can be accessed from multiple threads.
+ */
+public class PhraseMatcher {
+
+    private final Vocabulary mVocabulary;
+    private final TokenAhoCorasick mTree;
+    private final boolean mCaseInsensitive;
+
+    private PhraseMatcher(List<String> phrases, List<?> outputs, boolean caseInsensitive) {
+        mCaseInsensitive = caseInsensitive;
+        mVocabulary = new Vocabulary();
+        mTree = new TokenAhoCorasick();
+
+        List<Integer> tokens = new ArrayList<>();
+        for (int patternId = 0; patternId < phrases.size(); patternId++) {
+            String phrase = phrases.get(patternId);
+            tokens.clear();
+            for (int i = 0; i < phrase.length(); ) {
+                int codePoint = phrase.codePointAt(i);
+                if (!isWordCharacter(codePoint)) {
+                    i += Character.charCount(codePoint);
+                    continue;
+                }
+                StringBuilder word = new StringBuilder();
+                while (i < phrase.length() && isWordCharacter(codePoint = phrase.codePointAt(i))) {
+                    word.appendCodePoint(fold(codePoint));
+                    i += Character.charCount(codePoint);
+                }
+                tokens.add(mVocabulary.intern(word.toString()));
+            }
+            if (tokens.isEmpty()) {
+                throw new IllegalArgumentException("Phrase has no words: \"" + phrase + "\"");
+            }
+            mTree.add(tokens.stream().mapToInt(Integer::intValue).toArray(), outputs.get(patternId));
+        }
+        mTree.prepare();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object rawOutput) {
+        return (T) rawOutput;
+    }
+
+    private static boolean isWordCharacter(int codePoint) {
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+                return true;
+            default:
+                return Character.isLetterOrDigit(codePoint);
+        }
+    }
+
+    private int fold(int codePoint) {
+        return mCaseInsensitive ? Character.toLowerCase(Character.toUpperCase(codePoint)) : codePoint;
+    }
+
+    /**
+     * Find every phrase that occurs in the haystack.
+     *
+     * @param haystack The haystack.
+     * @return The outputs of the phrases found.
+     */
+    public <T> Set<T> searchIn(CharSequence haystack) {
+        Set<T> outputs = new HashSet<>();
+
+        searchIn(haystack, (T output) -> {
+            outputs.add(output);
+            return true;
+        });
+
+        return outputs;
+    }
+
+    /**
+     * Report every occurrence of every phrase in the haystack to the listener,
+     * as it is found.
+     *
+     * @param haystack The haystack.
+     * @param listener Receives the output of each phrase found.
+     * @return {@code false} if the listener stopped the search early.
+     */
+    public <T> boolean searchIn(CharSequence haystack, AhoCorasickMatcher.Listener<T> listener) {
+        return scan(haystack, (int patternId, int start, int end) -> listener.onMatch(cast(mTree.getOutput(patternId))));
+    }
+
+    /**
+     * Check whether any phrase occurs in the haystack. The search stops at the
+     * first match.
+     */
+    public boolean containsAny(CharSequence haystack) {
+        return !scan(haystack, (int patternId, int start, int end) -> false);
+    }
+
+    /**
+     * Count every occurrence of every phrase in the haystack, overlapping ones
+     * included.
+     */
+    public int countMatches(CharSequence haystack) {
+        int[] count = {0};
+
+        scan(haystack, (int patternId, int start, int end) -> {
+            count[0]++;
+            return true;
+        });
+
+        return count[0];
+    }
+
+    /**
+     * Find every occurrence of every phrase in the haystack, from the start of
+     * its first word to the end of its last. Spans are ordered by their end,
+     * and those that end together by the number of words of their phrase, most
+     * first.
+     *
+     * @param haystack The haystack.
+     * @return The spans found, as {@code char} indices into the haystack.
+     */
+    public <T> List<AhoCorasickMatcher.Span<T>> spans(CharSequence haystack) {
+        List<AhoCorasickMatcher.Span<T>> spans = new ArrayList<>();
+
+        scan(haystack, (int patternId, int start, int end) ->
+                spans.add(new AhoCorasickMatcher.Span<>(start, end, cast(mTree.getOutput(patternId)))));
+
+        return spans;
+    }
+
+    private boolean scan(CharSequence haystack, Hits hits) {
+        Scan scan = new Scan(hits);
+        int state = 0;
+        long words = 0;
+
+        for (int i = 0; i < haystack.length(); ) {
+            int codePoint = Character.codePointAt(haystack, i);
+            if (!isWordCharacter(codePoint)) {
+                i += Character.charCount(codePoint);
+                continue;
+            }
+
+            int start = i;
+            int hash = 0;
+            do {
+                hash = 31 * hash + fold(codePoint);
+                i += Character.charCount(codePoint);
+            } while (i < haystack.length() && isWordCharacter(codePoint = Character.codePointAt(haystack, i)));
+
+            scan.mark(words++, start, i);
+            state = mTree.step(state, mVocabulary.lookup(haystack, start, i, hash));
+            if (mTree.isTerminal(state) && !mTree.report(state, words, scan)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Receives the matches of one search, by pattern id and {@code char}
+     * indices.
+     */
+    private interface Hits {
+
+        boolean onMatch(int patternId, int start, int end);
+    }
+
+    /**
+     * Turns the word counts the automaton reports into {@code char} indices,
+     * remembering where each of the last few words fed starts.
+     */
+    private class Scan implements StreamMatchHandler {
+
+        private final Hits mHits;
+        private final int[] mStarts;
+        private int mEnd;
+
+        Scan(Hits hits) {
+            mHits = hits;
+            mStarts = new int[Integer.highestOneBit(Math.max(mTree.maxKeywordLength(), 1)) << 1];
+        }
+
+        void mark(long word, int start, int end) {
+            mStarts[(int) word & (mStarts.length - 1)] = start;
+            mEnd = end;
+        }
+
+        @Override
+        public boolean onMatch(int patternId, long lastIndex) {
+            long first = lastIndex - mTree.getKeywordLength(patternId);
+            return mHits.onMatch(patternId, mStarts[(int) first & (mStarts.length - 1)], mEnd);
+        }
+    }
+
+    /**
+     * The words the phrases use, folded, each with its id. An open addressing
+     * table of ids, keyed by the same hash the tokenizer computes as it
+     * scans, so that a word of the haystack is looked up in place.
+     */
+    private class Vocabulary {
+
+        private String[] mWords = new String[16];
+        private int[] mHashes = new int[16];
+        private int mSize;
+
+        // Id plus one of the word in each slot, or 0
+        private int[] mTable = new int[32];
+
+        int intern(String word) {
+            int hash = 0;
+            for (int i = 0; i < word.length(); ) {
+                int codePoint = word.codePointAt(i);
+                hash = 31 * hash + codePoint;
+                i += Character.charCount(codePoint);
+            }
+            int id = lookup(word, 0, word.length(), hash);
+            if (id >= 0) {
+                return id;
+            }
+
+            id = mSize++;
+            if (id == mWords.length) {
+                mWords = Arrays.copyOf(mWords, id * 2);
+                mHashes = Arrays.copyOf(mHashes, id * 2);
+            }
+            mWords[id] = word;
+            mHashes[id] = hash;
+            if (2 * mSize > mTable.length) {
+                mTable = new int[mTable.length * 2];
+                for (int k = 0; k < id; k++) {
+                    insert(k);
+                }
+            }
+            insert(id);
+            return id;
+        }
+
+        /**
+         * Id of the word in {@code text[start, end)}, folded, whose hash is
+         * given, or -1.
+         */
+        int lookup(CharSequence text, int start, int end, int hash) {
+            int mask = mTable.length - 1;
+            for (int k = mix(hash) & mask; mTable[k] != 0; k = (k + 1) & mask) {
+                int id = mTable[k] - 1;
+                if (mHashes[id] == hash && matches(mWords[id], text, start, end)) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(int id) {
+            int mask = mTable.length - 1;
+            int k = mix(mHashes[id]) & mask;
+            while (mTable[k] != 0) {
+                k = (k + 1) & mask;
+            }
+            mTable[k] = id + 1;
+        }
+
+        private boolean matches(String word, CharSequence text, int start, int end) {
+            int j = 0;
+            for (int i = start; i < end; ) {
+                int codePoint = Character.codePointAt(text, i);
+                if (j >= word.length() || word.codePointAt(j) != fold(codePoint)) {
+                    return false;
+                }
+                i += Character.charCount(codePoint);
+                j += Character.charCount(word.codePointAt(j));
+            }
+            return j == word.length();
+        }
+
+        private int mix(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    public static class Builder {
+
+        private boolean mCaseInsensitive = false;
+
+        public Builder caseInsensitive() {
+            mCaseInsensitive = true;
+            return this;
+        }
+
+        public PhraseMatcher build(Set<String> phrases) {
+            List<String> list = new ArrayList<>(phrases);
+            return new PhraseMatcher(list, list, mCaseInsensitive);
+        }
+
+        public PhraseMatcher build(Map<String, ?> phraseOutputMap) {
+            return new PhraseMatcher(new ArrayList<>(phraseOutputMap.keySet()),
+                    new ArrayList<>(phraseOutputMap.values()), mCaseInsensitive);
+        }
+    }
+}
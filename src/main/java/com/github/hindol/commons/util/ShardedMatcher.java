@@ -0,0 +1,332 @@
+package com.github.hindol.commons.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * A dictionary too large for one automaton, split by the hash of each needle
+ * into shards, each its own {@link AhoCorasickMatcher}. Shards are built side
+ * by side on an executor, and a search runs the haystack through every shard,
+ * on the executor too if the haystack is long enough to be worth it, then
+ * merges what they found.
+ *
+ * A shard can be rebuilt on its own, from needles that {@link #shardOf(String)}
+ * maps to it, while searches go on: a search uses the shards as they were when
+ * it started.
+ *
+ * Only every occurrence of every needle can be merged this way, not leftmost
+ * matches, which depend on needles of other shards. Spans are ordered by their
+ * end, those that end together longest first, then by shard.
+ *
+ * Instances of this class can be accessed from multiple threads.
+ */
+public class ShardedMatcher {
+
+    // Shorter haystacks are searched shard after shard, on the calling thread
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private final AhoCorasickMatcher.Builder mBuilder;
+    private final Executor mExecutor;
+    private final AtomicReferenceArray<AhoCorasickMatcher> mShards;
+
+    private ShardedMatcher(AhoCorasickMatcher.Builder builder, Executor executor, int shardCount,
+                           Map<String, ?> needleOutputMap) {
+        mBuilder = builder;
+        mExecutor = executor;
+        mShards = new AtomicReferenceArray<>(shardCount);
+
+        List<Map<String, Object>> parts = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            parts.add(new LinkedHashMap<>());
+        }
+        for (Map.Entry<String, ?> entry : needleOutputMap.entrySet()) {
+            parts.get(shardOf(entry.getKey())).put(entry.getKey(), entry.getValue());
+        }
+
+        List<CompletableFuture<AhoCorasickMatcher>> shards = new ArrayList<>(shardCount);
+        for (Map<String, Object> part : parts) {
+            shards.add(CompletableFuture.supplyAsync(() -> build(part), executor));
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            mShards.set(shard, join(shards.get(shard)));
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public int shardCount() {
+        return mShards.length();
+    }
+
+    /**
+     * The shard the needle belongs to.
+     */
+    public int shardOf(String needle) {
+        int hash = needle.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), mShards.length());
+    }
+
+    /**
+     * Replace the needles of one shard. Searches that start after this returns
+     * see the new needles; the other shards are not touched.
+     *
+     * @param shard           The shard.
+     * @param needleOutputMap Its new needles, all of which must belong to it.
+     */
+    public void rebuildShard(int shard, Map<String, ?> needleOutputMap) {
+        for (String needle : needleOutputMap.keySet()) {
+            if (shardOf(needle) != shard) {
+                throw new IllegalArgumentException("Needle \"" + needle + "\" belongs to shard " + shardOf(needle));
+            }
+        }
+        mShards.set(shard, build(needleOutputMap));
+    }
+
+    /**
+     * See {@link #rebuildShard(int, Map)}; each needle is its own output.
+     */
+    public void rebuildShard(int shard, Set<String> needles) {
+        Map<String, Object> needleOutputMap = new LinkedHashMap<>();
+        for (String needle : needles) {
+            needleOutputMap.put(needle, needle);
+        }
+        rebuildShard(shard, needleOutputMap);
+    }
+
+    /**
+     * Find all occurrences of <em>all</em> needles in the provided haystack.
+     *
+     * @param haystack The haystack.
+     * @return The outputs of the needles found.
+     */
+    public <T> Set<T> searchIn(CharSequence haystack) {
+        Set<T> outputs = new HashSet<>();
+        for (Set<T> found : eachShard(haystack, (AhoCorasickMatcher shard) -> shard.<T>searchIn(haystack))) {
+            outputs.addAll(found);
+        }
+        return outputs;
+    }
+
+    /**
+     * Check whether any needle occurs in the provided haystack. In parallel,
+     * the search ends with the first shard that finds one.
+     */
+    public boolean containsAny(CharSequence haystack) {
+        if (!isParallel(haystack)) {
+            for (AhoCorasickMatcher shard : shards()) {
+                if (shard.containsAny(haystack)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Done as soon as one shard finds a needle: the others are not waited
+        // for, and those that have not started yet skip their search
+        CompletableFuture<Boolean> found = new CompletableFuture<>();
+        List<CompletableFuture<Boolean>> searches = new ArrayList<>(mShards.length());
+        for (AhoCorasickMatcher shard : shards()) {
+            searches.add(CompletableFuture
+                    .supplyAsync(() -> !found.isDone() && shard.containsAny(haystack), mExecutor)
+                    .whenComplete((Boolean contains, Throwable failure) -> {
+                        if (failure != null) {
+                            found.completeExceptionally(failure);
+                        } else if (contains) {
+                            found.complete(true);
+                        }
+                    }));
+        }
+        CompletableFuture.allOf(searches.toArray(new CompletableFuture<?>[0])).thenRun(() -> found.complete(false));
+        return join(found);
+    }
+
+    /**
+     * Count every occurrence of every needle in the provided haystack,
+     * overlapping ones included.
+     */
+    public int countMatches(CharSequence haystack) {
+        int count = 0;
+        for (int found : eachShard(haystack, (AhoCorasickMatcher shard) -> shard.countMatches(haystack))) {
+            count += found;
+        }
+        return count;
+    }
+
+    /**
+     * Find every occurrence of every needle in the provided haystack, with
+     * where it starts and ends.
+     *
+     * @param haystack The haystack.
+     * @return The spans found, as {@code char} indices into the haystack.
+     */
+    public <T> List<AhoCorasickMatcher.Span<T>> spans(CharSequence haystack) {
+        List<AhoCorasickMatcher.Span<T>> spans = new ArrayList<>();
+        for (List<AhoCorasickMatcher.Span<T>> found :
+                eachShard(haystack, (AhoCorasickMatcher shard) -> shard.<T>spans(haystack))) {
+            spans.addAll(found);
+        }
+
+        // The sort is stable, so spans of the same needle length keep the order of their shards
+        spans.sort(Comparator.comparingInt((AhoCorasickMatcher.Span<T> span) -> span.getEnd())
+                .thenComparingInt(AhoCorasickMatcher.Span::getStart));
+        return spans;
+    }
+
+    /**
+     * Run the search on every shard, in parallel if the haystack is long
+     * enough, and return what each one found, by shard.
+     */
+    private <R> List<R> eachShard(CharSequence haystack, Function<AhoCorasickMatcher, R> search) {
+        List<AhoCorasickMatcher> shards = shards();
+        List<R> results = new ArrayList<>(shards.size());
+        if (!isParallel(haystack)) {
+            for (AhoCorasickMatcher shard : shards) {
+                results.add(search.apply(shard));
+            }
+            return results;
+        }
+
+        // The calling thread takes the first shard rather than wait idle
+        List<CompletableFuture<R>> futures = new ArrayList<>(shards.size());
+        for (int shard = 1; shard < shards.size(); shard++) {
+            AhoCorasickMatcher matcher = shards.get(shard);
+            futures.add(CompletableFuture.supplyAsync(() -> search.apply(matcher), mExecutor));
+        }
+        results.add(search.apply(shards.get(0)));
+        for (CompletableFuture<R> future : futures) {
+            results.add(join(future));
+        }
+        return results;
+    }
+
+    /**
+     * The shards as they are now, whatever rebuilds come next.
+     */
+    private List<AhoCorasickMatcher> shards() {
+        List<AhoCorasickMatcher> shards = new ArrayList<>(mShards.length());
+        for (int shard = 0; shard < mShards.length(); shard++) {
+            shards.add(mShards.get(shard));
+        }
+        return shards;
+    }
+
+    private boolean isParallel(CharSequence haystack) {
+        return mShards.length() > 1 && haystack.length() >= PARALLEL_THRESHOLD;
+    }
+
+    private AhoCorasickMatcher build(Map<String, ?> needleOutputMap) {
+        return mBuilder.build(needleOutputMap);
+    }
+
+    public static class Builder {
+
+        private boolean mMatchWholeWords = false;
+        private boolean mCaseInsensitive = false;
+        private Pattern mDelimiters = null;
+        private boolean mOffHeap = false;
+        private int mShardCount = Runtime.getRuntime().availableProcessors();
+        private Executor mExecutor = ForkJoinPool.commonPool();
+
+        public Builder matchWholeWords() {
+            mMatchWholeWords = true;
+            return this;
+        }
+
+        public Builder withDelimiters(String delimiters) {
+            return withDelimiters(Pattern.compile(delimiters));
+        }
+
+        public Builder withDelimiters(Pattern delimiters) {
+            mDelimiters = delimiters;
+            return this;
+        }
+
+        public Builder caseInsensitive() {
+            mCaseInsensitive = true;
+            return this;
+        }
+
+        /**
+         * See {@link AhoCorasickMatcher.Builder#offHeap()}.
+         */
+        public Builder offHeap() {
+            mOffHeap = true;
+            return this;
+        }
+
+        /**
+         * How many shards to split the needles into. Defaults to the number of
+         * processors.
+         */
+        public Builder withShards(int shardCount) {
+            if (shardCount <= 0) {
+                throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+            }
+            mShardCount = shardCount;
+            return this;
+        }
+
+        /**
+         * Where shards are built and long haystacks searched. Defaults to the
+         * common fork-join pool.
+         */
+        public Builder withExecutor(Executor executor) {
+            mExecutor = executor;
+            return this;
+        }
+
+        public ShardedMatcher build(Set<String> needles) {
+            Map<String, Object> needleOutputMap = new LinkedHashMap<>();
+            for (String needle : needles) {
+                needleOutputMap.put(needle, needle);
+            }
+            return build(needleOutputMap);
+        }
+
+        public ShardedMatcher build(Map<String, ?> needleOutputMap) {
+            // A builder of its own, which shards are built and rebuilt with, whatever happens to this one
+            AhoCorasickMatcher.Builder shardBuilder = AhoCorasickMatcher.builder();
+            if (mMatchWholeWords) {
+                shardBuilder.matchWholeWords();
+            }
+            if (mDelimiters != null) {
+                shardBuilder.withDelimiters(mDelimiters);
+            }
+            if (mCaseInsensitive) {
+                shardBuilder.caseInsensitive();
+            }
+            if (mOffHeap) {
+                shardBuilder.offHeap();
+            }
+            return new ShardedMatcher(shardBuilder, mExecutor, mShardCount, needleOutputMap);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.hindol.commons.util;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Finds a few dozen short needles at once with the bit-parallel Shift-And
+ * algorithm. Every code point of every needle gets one bit of a small array of
+ * longs; after each code point of the haystack, a bit is set if the haystack
+ * so far ends with the needle up to that code point. Moving on to the next
+ * code point is a shift and an and per long, whatever the number of needles,
+ * and there is no automaton to walk or to build.
+ *
+ * Code points are compared as the automaton would compare them, after the
+ * matcher's normalization.
+ */
+class ShiftAndEngine implements AhoCorasickMatcher.Engine {
+
+    /**
+     * The most bits, that is code points of all needles together, that this
+     * engine takes on.
+     */
+    static final int MAX_BITS = 512;
+
+    private final IntUnaryOperator mNormalizer;
+    private final int mWidth;
+
+    // Bit of the first and of the last code point of each needle
+    private final long[] mStarts;
+    private final long[] mEnds;
+
+    // Pattern ids, ordered by length, longest first, and where each one ends
+    private final int[] mOrder;
+    private final int[] mEndBits;
+
+    // Which bits a code point can set, by row: row 0 is all clear, and rows
+    // of code points below 256 are found directly, the others by binary search
+    private final long[] mMasks;
+    private final int[] mLatinRows = new int[256];
+    private final int[] mOtherCodePoints;
+    private final int[] mOtherRows;
+
+    /**
+     * @param needles    The code points of the needles, normalized, by pattern
+     *                   id.
+     * @param normalizer Normalizes the code points of haystacks.
+     */
+    ShiftAndEngine(int[][] needles, IntUnaryOperator normalizer) {
+        mNormalizer = normalizer;
+
+        int bits = 0;
+        for (int[] needle : needles) {
+            bits += needle.length;
+        }
+        mWidth = (bits + 63) >>> 6;
+        mStarts = new long[mWidth];
+        mEnds = new long[mWidth];
+        mEndBits = new int[needles.length];
+
+        int[] codePoints = new int[bits];
+        int bit = 0;
+        for (int k = 0; k < needles.length; k++) {
+            mStarts[bit >>> 6] |= 1L << bit;
+            for (int codePoint : needles[k]) {
+                codePoints[bit++] = codePoint;
+            }
+            mEndBits[k] = bit - 1;
+            mEnds[(bit - 1) >>> 6] |= 1L << (bit - 1);
+        }
+
+        // One row per distinct code point
+        int[] distinct = Arrays.stream(codePoints).distinct().sorted().toArray();
+        mMasks = new long[(distinct.length + 1) * mWidth];
+        int others = 0;
+        for (int codePoint : distinct) {
+            if (codePoint >= 256) {
+                others++;
+            }
+        }
+        mOtherCodePoints = new int[others];
+        mOtherRows = new int[others];
+        int other = 0;
+        for (int row = 1; row <= distinct.length; row++) {
+            int codePoint = distinct[row - 1];
+            if (codePoint < 256) {
+                mLatinRows[codePoint] = row;
+            } else {
+                mOtherCodePoints[other] = codePoint;
+                mOtherRows[other++] = row;
+            }
+            for (int b = 0; b < bits; b++) {
+                if (codePoints[b] == codePoint) {
+                    mMasks[row * mWidth + (b >>> 6)] |= 1L << b;
+                }
+            }
+        }
+
+        // A stable sort keeps needles of the same length in pattern id order
+        mOrder = new int[needles.length];
+        Integer[] order = new Integer[needles.length];
+        Arrays.setAll(order, k -> k);
+        Arrays.sort(order, (a, b) -> needles[b].length - needles[a].length);
+        for (int k = 0; k < needles.length; k++) {
+            mOrder[k] = order[k];
+        }
+    }
+
+    /**
+     * Whether the given needles, as code points, fit this engine.
+     */
+    static boolean accepts(int[][] needles) {
+        int bits = 0;
+        for (int[] needle : needles) {
+            if (needle.length == 0) {
+                return false;
+            }
+            bits += needle.length;
+        }
+        return bits <= MAX_BITS;
+    }
+
+    @Override
+    public boolean scan(CharSequence haystack, AhoCorasickMatcher.Hits hits) {
+        int width = mWidth;
+        long[] masks = mMasks;
+        long[] state = new long[width];
+        boolean clear = true;
+
+        for (int i = 0; i < haystack.length(); ) {
+            int codePoint = Character.codePointAt(haystack, i);
+            i += Character.charCount(codePoint);
+
+            int row = row(mNormalizer.applyAsInt(codePoint));
+            if (row == 0) {
+                // Nothing can match across this code point
+                if (!clear) {
+                    Arrays.fill(state, 0);
+                    clear = true;
+                }
+                continue;
+            }
+
+            int offset = row * width;
+            long found = 0;
+            for (int w = width - 1; w >= 0; w--) {
+                long carry = w > 0 ? state[w - 1] >>> 63 : 0;
+                state[w] = ((state[w] << 1) | carry | mStarts[w]) & masks[offset + w];
+                found |= state[w] & mEnds[w];
+            }
+            clear = false;
+
+            if (found != 0 && !report(state, i, hits)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean report(long[] state, int end, AhoCorasickMatcher.Hits hits) {
+        for (int patternId : mOrder) {
+            int bit = mEndBits[patternId];
+            if ((state[bit >>> 6] & (1L << bit)) != 0 && !hits.onMatch(patternId, end)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int row(int codePoint) {
+        if (codePoint < 256) {
+            return mLatinRows[codePoint];
+        }
+        int index = Arrays.binarySearch(mOtherCodePoints, codePoint);
+        return index < 0 ? 0 : mOtherRows[index];
+    }
+}
@@ -0,0 +1,264 @@
+package com.github.hindol.commons.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Many keyword dictionaries, one per tenant, searched with one shared
+ * {@link AhoCorasickMatcher}. The matcher is built over the union of the
+ * keywords, so a keyword that many tenants have is in it once, and memory
+ * grows with the union rather than with the sum of the dictionaries. Each
+ * keyword keeps the sorted list of the tenants that have it, with the output
+ * each one gave it, and a search for one tenant drops the other tenants'
+ * matches as the scan finds them.
+ *
+ * Leftmost matching picks among the tenant's own keywords only; of those that
+ * start together, {@link AhoCorasickMatcher.MatchKind#LEFTMOST_FIRST} prefers
+ * the keyword that was first added to the builder, by any tenant.
+ *
+ * Instances of this class can be accessed from multiple threads.
+ *
+ * @param <K> The type of tenant ids.
+ */
+public class TenantMatcher<K> {
+
+    private final AhoCorasickMatcher mMatcher;
+
+    // Index of each tenant
+    private final Map<K, Integer> mTenantIndices;
+
+    // Tenants of each keyword, by pattern id: mTenants[mTenantStarts[id], mTenantStarts[id + 1]),
+    // sorted, and the output each one gave it
+    private final int[] mTenantStarts;
+    private final int[] mTenants;
+    private final Object[] mOutputs;
+
+    private TenantMatcher(AhoCorasickMatcher.Builder builder, Map<K, Map<String, Object>> dictionaries) {
+        mTenantIndices = new LinkedHashMap<>();
+        List<Map<String, Object>> outputs = new ArrayList<>(dictionaries.values());
+
+        // Pattern ids, in the order keywords were first added, and the tenants of each one
+        Map<String, List<Integer>> tenants = new LinkedHashMap<>();
+        int pairs = 0;
+        for (Map.Entry<K, Map<String, Object>> dictionary : dictionaries.entrySet()) {
+            int tenant = mTenantIndices.size();
+            mTenantIndices.put(dictionary.getKey(), tenant);
+            for (String keyword : dictionary.getValue().keySet()) {
+                tenants.computeIfAbsent(keyword, k -> new ArrayList<>()).add(tenant);
+                pairs++;
+            }
+        }
+
+        mTenantStarts = new int[tenants.size() + 1];
+        mTenants = new int[pairs];
+        mOutputs = new Object[pairs];
+        int patternId = 0;
+        int pair = 0;
+        for (Map.Entry<String, List<Integer>> keyword : tenants.entrySet()) {
+            // Tenants were numbered in the order they were added, so the list is sorted
+            for (int tenant : keyword.getValue()) {
+                mTenants[pair] = tenant;
+                mOutputs[pair++] = outputs.get(tenant).get(keyword.getKey());
+            }
+            mTenantStarts[++patternId] = pair;
+        }
+
+        mMatcher = builder.build(tenants.keySet());
+    }
+
+    public static <K> Builder<K> builder() {
+        return new Builder<>();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object rawOutput) {
+        return (T) rawOutput;
+    }
+
+    /**
+     * The tenants, in the order they were added.
+     */
+    public Set<K> tenants() {
+        return Collections.unmodifiableSet(mTenantIndices.keySet());
+    }
+
+    /**
+     * Find every keyword of the tenant that occurs in the haystack.
+     *
+     * @param haystack The haystack.
+     * @param tenant   The tenant.
+     * @return The outputs the tenant gave the keywords found.
+     */
+    public <T> Set<T> searchIn(CharSequence haystack, K tenant) {
+        Set<T> outputs = new HashSet<>();
+
+        searchIn(haystack, tenant, (T output) -> {
+            outputs.add(output);
+            return true;
+        });
+
+        return outputs;
+    }
+
+    /**
+     * Report every occurrence of every keyword of the tenant in the haystack
+     * to the listener, as it is found.
+     *
+     * @param haystack The haystack.
+     * @param tenant   The tenant.
+     * @param listener Receives the output the tenant gave each keyword found.
+     * @return {@code false} if the listener stopped the search early.
+     */
+    public <T> boolean searchIn(CharSequence haystack, K tenant, AhoCorasickMatcher.Listener<T> listener) {
+        int index = tenantIndex(tenant);
+        return scan(haystack, index, AhoCorasickMatcher.MatchKind.ALL,
+                (int patternId, int end) -> listener.onMatch(cast(mOutputs[pair(patternId, index)])));
+    }
+
+    /**
+     * Check whether any keyword of the tenant occurs in the haystack. The
+     * search stops at the first match.
+     */
+    public boolean containsAny(CharSequence haystack, K tenant) {
+        return !scan(haystack, tenantIndex(tenant), AhoCorasickMatcher.MatchKind.ALL,
+                (int patternId, int end) -> false);
+    }
+
+    /**
+     * Count every occurrence of every keyword of the tenant in the haystack,
+     * overlapping ones included.
+     */
+    public int countMatches(CharSequence haystack, K tenant) {
+        int[] count = {0};
+
+        scan(haystack, tenantIndex(tenant), AhoCorasickMatcher.MatchKind.ALL, (int patternId, int end) -> {
+            count[0]++;
+            return true;
+        });
+
+        return count[0];
+    }
+
+    /**
+     * Find every occurrence of every keyword of the tenant in the haystack.
+     * See {@link AhoCorasickMatcher#spans(CharSequence)}.
+     */
+    public <T> List<AhoCorasickMatcher.Span<T>> spans(CharSequence haystack, K tenant) {
+        return spans(haystack, tenant, AhoCorasickMatcher.MatchKind.ALL);
+    }
+
+    /**
+     * Find the occurrences of keywords of the tenant in the haystack that the
+     * given kind of matching picks. See
+     * {@link AhoCorasickMatcher#spans(CharSequence, AhoCorasickMatcher.MatchKind)}.
+     */
+    public <T> List<AhoCorasickMatcher.Span<T>> spans(CharSequence haystack, K tenant,
+                                                       AhoCorasickMatcher.MatchKind kind) {
+        int index = tenantIndex(tenant);
+        List<AhoCorasickMatcher.Span<T>> spans = new ArrayList<>();
+
+        scan(haystack, index, kind, (int patternId, int end) -> {
+            int start = Character.offsetByCodePoints(haystack, end, -mMatcher.needleLength(patternId));
+            spans.add(new AhoCorasickMatcher.Span<>(start, end, cast(mOutputs[pair(patternId, index)])));
+            return true;
+        });
+
+        return spans;
+    }
+
+    private boolean scan(CharSequence haystack, int tenant, AhoCorasickMatcher.MatchKind kind,
+                         AhoCorasickMatcher.Hits hits) {
+        return mMatcher.scan(haystack, kind, (int patternId) -> pair(patternId, tenant) >= 0, hits);
+    }
+
+    private int tenantIndex(K tenant) {
+        Integer index = mTenantIndices.get(tenant);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown tenant: " + tenant);
+        }
+        return index;
+    }
+
+    /**
+     * Where the tenant is among the tenants of the keyword, or a negative
+     * number if the keyword is not the tenant's.
+     */
+    private int pair(int patternId, int tenant) {
+        int start = mTenantStarts[patternId];
+        int end = mTenantStarts[patternId + 1];
+        if (end - start == 1) {
+            return mTenants[start] == tenant ? start : -1;
+        }
+        return Arrays.binarySearch(mTenants, start, end, tenant);
+    }
+
+    public static class Builder<K> {
+
+        private final AhoCorasickMatcher.Builder mBuilder = AhoCorasickMatcher.builder();
+        private final Map<K, Map<String, Object>> mDictionaries = new LinkedHashMap<>();
+
+        public Builder<K> matchWholeWords() {
+            mBuilder.matchWholeWords();
+            return this;
+        }
+
+        public Builder<K> withDelimiters(String delimiters) {
+            mBuilder.withDelimiters(delimiters);
+            return this;
+        }
+
+        public Builder<K> withDelimiters(Pattern delimiters) {
+            mBuilder.withDelimiters(delimiters);
+            return this;
+        }
+
+        public Builder<K> caseInsensitive() {
+            mBuilder.caseInsensitive();
+            return this;
+        }
+
+        /**
+         * See {@link AhoCorasickMatcher.Builder#offHeap()}.
+         */
+        public Builder<K> offHeap() {
+            mBuilder.offHeap();
+            return this;
+        }
+
+        /**
+         * Give the tenant these keywords, each its own output. A tenant can be
+         * given keywords more than once; a keyword given again replaces the
+         * output it had.
+         */
+        public Builder<K> add(K tenant, Set<String> keywords) {
+            Map<String, Object> dictionary = dictionary(tenant);
+            for (String keyword : keywords) {
+                dictionary.put(keyword, keyword);
+            }
+            return this;
+        }
+
+        /**
+         * Give the tenant these keywords, with the outputs they map to.
+         */
+        public Builder<K> add(K tenant, Map<String, ?> keywordOutputMap) {
+            dictionary(tenant).putAll(keywordOutputMap);
+            return this;
+        }
+
+        public TenantMatcher<K> build() {
+            return new TenantMatcher<>(mBuilder, mDictionaries);
+        }
+
+        private Map<String, Object> dictionary(K tenant) {
+            return mDictionaries.computeIfAbsent(tenant, k -> new LinkedHashMap<>());
+        }
+    }
+}
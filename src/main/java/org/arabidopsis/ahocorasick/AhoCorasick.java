@@ -1,6 +1,17 @@
 package org.arabidopsis.ahocorasick;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -10,6 +21,11 @@ import java.util.Iterator;
    target="_blank">Aho-Corasick</a> algorithm is optimized to work
    with bytes.</p>
 
+   <p>An automaton created with new AhoCorasick(true) ignores ASCII
+   case: keywords are folded when they are added, and the folding of
+   the input is built into the transitions, so the haystack is
+   searched as is.</p>
+
    <p>
    Example usage:
    <code><pre>
@@ -20,9 +36,9 @@ import java.util.Iterator;
 
        Iterator searcher = tree.search("hello world".getBytes());
        while (searcher.hasNext()) {
-           SearchResult result = searcher.next();
-           System.out.println(result.getOutputs());
-           System.out.println("Found at index: " + result.getLastIndex());
+	   SearchResult result = searcher.next();
+	   System.out.println(result.getOutputs());
+	   System.out.println("Found at index: " + result.getLastIndex());
        }
    </pre></code>
    </p>
@@ -35,15 +51,53 @@ import java.util.Iterator;
    SearchResults.getOutputs() to Sets rather than Lists.
    </li>
 
+   <li>Keywords now get dense int pattern ids, and prepare() keeps
+   the ids of all states in one shared int array instead of a
+   HashSet per State.  The output objects live in a side table,
+   see getOutput().
+   </li>
+
    </ul>
  */
-public class AhoCorasick {
+public class AhoCorasick extends Automaton {
+    // Parallel work is split into pieces of at most this many items
+    private static final int GRAIN = 1024;
+
     private State root;
     private boolean prepared;
+    private List patterns;
+    private int[] keywordLengths;
+    private int maxKeywordLength;
+    private byte[] fold;
+    private boolean[] keywordBytes;
+    private byte[] classes;
+    private int classCount;
+    private State[] states;
+    private int[] depths;
+    private boolean[] terminal;
+    private int[] outputLinks;
+    private int[] outputStarts;
+    private int[] outputIds;
+    private DoubleArray compiled;
+    private int[] deterministic;
 
     public AhoCorasick() {
+	this(false);
+    }
+
+
+    /**
+       Creates an automaton that, if caseInsensitive is true, treats
+       the ASCII letters A-Z and a-z as equal both in keywords and in
+       the input.  Other bytes are matched exactly.
+     */
+    public AhoCorasick(boolean caseInsensitive) {
 	this.root = new State(0);
 	this.prepared = false;
+	this.patterns = new ArrayList();
+	this.keywordLengths = new int[16];
+	this.fold = foldTable(caseInsensitive);
+	this.keywordBytes = new boolean[256];
     }
 
 
@@ -51,14 +105,134 @@ public class AhoCorasick {
     /**
        Adds a new keyword with the given output.  During search, if
        the keyword is matched, output will be one of the yielded
-       elements in SearchResults.getOutputs().
+       elements in SearchResults.getOutputs().  Returns the pattern id
+       of the keyword: ids are handed out densely from 0, in the order
+       keywords are added, and are what MatchHandlers receive.
      */
-    public void add(byte[] keyword, Object output) {
+    public int add(byte[] keyword, Object output) {
 	if (this.prepared)
 	    throw new IllegalStateException
 		("can't add keywords after prepare() is called");
+	int id = this.patterns.size();
+	keyword = this.fold(keyword);
 	State lastState = this.root.extendAll(keyword);
-	lastState.addOutput(output);
+	lastState.addPatternId(id);
+	this.patterns.add(output);
+	if (id == this.keywordLengths.length)
+	    this.keywordLengths = Arrays.copyOf(this.keywordLengths, id * 2);
+	this.keywordLengths[id] = keyword.length;
+	this.maxKeywordLength = Math.max(this.maxKeywordLength, keyword.length);
+	for (int i = 0; i < keyword.length; i++)
+	    this.keywordBytes[keyword[i] & 0xFF] = true;
+	return id;
+    }
+
+
+
+    /**
+       Adds keywords[i] with outputs[i] for every i, as add() would
+       one at a time, and returns the pattern id of the first; the
+       others follow in order.  The keywords are grouped by their
+       first byte, and the subtries under the root, which share no
+       states, are built in the pool.
+     */
+    public int addAll(byte[][] keywords, final Object[] outputs,
+		      ForkJoinPool pool) {
+	if (this.prepared)
+	    throw new IllegalStateException
+		("can't add keywords after prepare() is called");
+	if (keywords.length != outputs.length)
+	    throw new IllegalArgumentException
+		("keywords and outputs differ in length");
+	final int first = this.patterns.size();
+	final byte[][] folded = new byte[keywords.length][];
+	int[] counts = new int[257];
+	for (int i = 0; i < keywords.length; i++) {
+	    folded[i] = this.fold(keywords[i]);
+	    counts[folded[i].length == 0 ? 0 : (folded[i][0] & 0xFF) + 1]++;
+	}
+	int[] starts = new int[258];
+	for (int g = 0; g < 257; g++)
+	    starts[g + 1] = starts[g] + counts[g];
+	final int[] order = new int[keywords.length];
+	int[] next = starts.clone();
+	for (int i = 0; i < keywords.length; i++)
+	    order[next[folded[i].length == 0 ? 0 : (folded[i][0] & 0xFF) + 1]++] = i;
+
+	if (first + keywords.length > this.keywordLengths.length)
+	    this.keywordLengths = Arrays.copyOf
+		(this.keywordLengths,
+		 Math.max(first + keywords.length, this.keywordLengths.length * 2));
+	for (int i = 0; i < keywords.length; i++) {
+	    this.patterns.add(outputs[i]);
+	    this.keywordLengths[first + i] = folded[i].length;
+	    this.maxKeywordLength = Math.max(this.maxKeywordLength, folded[i].length);
+	}
+	for (int j = starts[0]; j < starts[1]; j++)
+	    this.root.addPatternId(first + order[j]);
+
+	List tasks = new ArrayList();
+	for (int g = 1; g < 257; g++) {
+	    if (counts[g] == 0)
+		continue;
+	    final State child = this.root.extend((byte) (g - 1));
+	    final int from = starts[g];
+	    final int to = starts[g + 1];
+	    final boolean[] keywordBytes = this.keywordBytes;
+	    tasks.add(new RecursiveAction() {
+		    protected void compute() {
+			for (int j = from; j < to; j++) {
+			    byte[] keyword = folded[order[j]];
+			    child.extendAll(keyword, 1).addPatternId(first + order[j]);
+			    for (int k = 0; k < keyword.length; k++)
+				keywordBytes[keyword[k] & 0xFF] = true;
+			}
+		    }
+		});
+	}
+	invokeAll(pool, tasks);
+	return first;
+    }
+
+
+
+    /**
+       Returns the output that was added with the given pattern id.
+     */
+    public Object getOutput(int patternId) {
+	return this.patterns.get(patternId);
+    }
+
+
+
+    /**
+       Returns the length in bytes of the keyword with the given
+       pattern id.  A match reported at lastIndex starts at lastIndex
+       minus this length.
+     */
+    public int getKeywordLength(int patternId) {
+	if (patternId >= this.patterns.size())
+	    throw new IndexOutOfBoundsException();
+	return this.keywordLengths[patternId];
+    }
+
+
+
+    /**
+       Returns the number of keywords added so far.
+     */
+    public int patternCount() {
+	return this.patterns.size();
+    }
+
+
+
+    /**
+       Returns the length in bytes of the longest keyword added so
+       far.  No match can span more bytes than this.
+     */
+    public int maxKeywordLength() {
+	return this.maxKeywordLength;
     }
 
 
@@ -68,54 +242,485 @@ public class AhoCorasick {
        before any searching().
      */
     public void prepare() {
-	this.prepareFailTransitions();
+	this.prepare(false);
+    }
+
+
+
+    /**
+       Prepares the automaton for searching.  If deterministic is
+       true, the fail links are also folded into a complete
+       transition table with one int per (state, byte class) pair
+       (see byteClassCount()), so that
+       every input byte costs exactly one array read no matter how
+       long the fail chains are.  That table costs
+       deterministicTableBytes() of memory on top of the trie.
+     */
+    public void prepare(boolean deterministic) {
+	this.prepare(deterministic, null);
+    }
+
+
+
+    /**
+       Like prepare(boolean), but spreads the work over the pool: the
+       subtries under the root are compacted concurrently, and the
+       fail links (and the deterministic table, if asked for) are
+       computed one breadth-first level at a time, with the states of
+       each level split between the threads.  Every state's fail
+       target is shallower than the state itself, so a level only
+       reads what earlier levels wrote.  The result is the same as
+       prepare(boolean)'s, state ids included.  With a null pool,
+       everything runs on the calling thread.
+     */
+    public void prepare(boolean deterministic, ForkJoinPool pool) {
+	if (deterministic && this.deterministicTableBytes() / 4 > Integer.MAX_VALUE)
+	    throw new IllegalStateException
+		("too many states for a deterministic table");
+	this.prepareByteClasses(pool);
+	this.prepareFailTransitions(pool);
 	this.prepared = true;
+	if (deterministic)
+	    this.deterministic = this.prepareDeterministicTransitions(pool);
+    }
+
+
+
+    /**
+       Returns the number of states in the automaton, the root
+       included.
+     */
+    public int stateCount() {
+	return this.prepared ? this.states.length : this.root.size();
     }
 
 
 
+    /**
+       Returns the number of bytes the table built by
+       prepare(true) takes, or would take, for the keywords added so
+       far.  This is the extra memory of the deterministic mode over
+       the plain trie with fail links.
+     */
+    public long deterministicTableBytes() {
+	return (long) this.stateCount() * this.byteClassCount() * 4;
+    }
+
+
 
     /**
-       Starts a new search, and returns an Iterator of SearchResults.
+       Returns the number of byte equivalence classes: one for every
+       distinct byte that occurs in some keyword, plus one shared by
+       all the bytes that occur in none.  Dense transition rows have
+       one column per class rather than one per byte value.
      */
-    public Iterator search(byte[] bytes) {
-	return new Searcher(this, this.startSearch(bytes));
+    public int byteClassCount() {
+	int count = 0;
+	boolean others = false;
+	for (int b = 0; b < 256; b++) {
+	    if (this.keywordBytes[b])
+		count++;
+	    others |= ! this.keywordBytes[this.fold[b] & 0xFF];
+	}
+	return others ? count + 1 : count;
+    }
+
+
+
+    /**
+       Returns how many states keep their edges in each layout (see
+       EdgeStats).  Walks the whole trie.
+     */
+    public EdgeStats edgeStats() {
+	EdgeStats stats = new EdgeStats();
+	if (this.prepared) {
+	    for (int i = 0; i < this.states.length; i++)
+		this.states[i].countEdges(stats);
+	    return stats;
+	}
+	List stack = new ArrayList();
+	stack.add(this.root);
+	while (! stack.isEmpty()) {
+	    State state = (State) stack.remove(stack.size() - 1);
+	    state.countEdges(stats);
+	    byte[] keys = state.keys();
+	    for (int i = 0; i < keys.length; i++)
+		stack.add(state.get(keys[i]));
+	}
+	return stats;
+    }
+
+
+
+    /**
+       Freezes the prepared automaton into a flat double-array
+       transition table (see DoubleArray).  Searches made after this
+       call walk plain int arrays instead of the State/EdgeList
+       object graph; the results are the same.  Optional, and only
+       allowed after prepare().
+     */
+    public void compile() {
+	if (! this.prepared)
+	    throw new IllegalStateException
+		("can't compile until prepare()");
+	if (this.compiled == null)
+	    this.compiled = new DoubleArray(this.states, this.classes,
+					    this.classRepresentatives());
+    }
+
+
+
+
+    /**
+       Writes the prepared automaton to a snapshot file that
+       FrozenAhoCorasick.load() maps back in, so that the keywords
+       need not be added and prepared again at every start.  Outputs
+       must be Strings or null.  See FrozenAhoCorasick for the format.
+     */
+    public void save(Path file) throws IOException {
+	if (! this.prepared)
+	    throw new IllegalStateException
+		("can't save until prepare()");
+	DoubleArray table = this.compiled;
+	if (table == null)
+	    table = new DoubleArray(this.states, this.classes,
+				    this.classRepresentatives());
+	try (FileChannel channel = FileChannel.open
+	     (file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+	      StandardOpenOption.TRUNCATE_EXISTING)) {
+	    FrozenAhoCorasick.write(this, this.classes, table, true, channel);
+	}
     }
 
 
 
+    /**
+       Copies the prepared automaton into direct ByteBuffers, outside
+       the Java heap, and returns it as a FrozenAhoCorasick with the
+       same search API.  The outputs stay where they are.  Once this
+       returns, this AhoCorasick and its State graph can be dropped,
+       so that a very large automaton does not weigh on the garbage
+       collector.
+     */
+    public FrozenAhoCorasick freeze() {
+	if (! this.prepared)
+	    throw new IllegalStateException
+		("can't freeze until prepare()");
+	DoubleArray table = this.compiled;
+	if (table == null)
+	    table = new DoubleArray(this.states, this.classes,
+				    this.classRepresentatives());
+	return FrozenAhoCorasick.freeze(this, this.classes, table);
+    }
 
 
 
+    /**
+       Starts a new search, and returns an Iterator of SearchResults.
+     */
+    public Iterator search(byte[] bytes) {
+	return new Searcher(this, this.startSearch(bytes));
+    }
+
 
 
     /** DANGER DANGER: dense algorithm code ahead.  Very order
 	dependent.  Initializes the fail transitions of all states
-	except for the root.
+	except for the root, level by level in breadth-first order.
+	Outputs are not copied down the fail chains; instead each
+	state gets an output link to the nearest state on its fail
+	chain that has outputs of its own, so the work and memory here
+	stay linear in the size of the trie.
     */
-    private void prepareFailTransitions() {
-	Queue q = new Queue();
-	for(int i = 0; i < 256; i++)
-	    if (this.root.get((byte) i) != null) {
-		this.root.get((byte) i).setFail(this.root);
-		q.add(this.root.get((byte) i));
-	    }
+    private void prepareFailTransitions(ForkJoinPool pool) {
+	List ordered = new ArrayList();
+	ordered.add(this.root);
+	byte[] rootKeys = this.root.keys();
+	State[] level = new State[rootKeys.length];
+	for(int i = 0; i < rootKeys.length; i++) {
+	    level[i] = this.root.get(rootKeys[i]);
+	    level[i].setFail(this.root);
+	}
 	this.prepareRoot();
-	while (! q.isEmpty()) {
-	    State state = q.pop();
+	while (level.length > 0) {
+	    for (int i = 0; i < level.length; i++) {
+		level[i].setId(ordered.size());
+		ordered.add(level[i]);
+	    }
+	    level = this.nextLevel(level, pool);
+	}
+	this.states = (State[]) ordered.toArray(new State[ordered.size()]);
+	this.depths = new int[this.states.length];
+	this.terminal = new boolean[this.states.length];
+	this.outputLinks = new int[this.states.length];
+	this.outputStarts = new int[this.states.length + 1];
+	this.outputIds = new int[this.patterns.size()];
+	int n = 0;
+	for (int i = 0; i < this.states.length; i++) {
+	    State state = this.states[i];
+	    State link = state.getOutputLink();
+	    int[] ids = state.getPatternIds();
+	    this.depths[i] = state.getDepth();
+	    this.outputLinks[i] = (link == null) ? -1 : link.getId();
+	    this.terminal[i] = ids.length > 0 || link != null;
+	    this.outputStarts[i] = n;
+	    System.arraycopy(ids, 0, this.outputIds, n, ids.length);
+	    n += ids.length;
+	}
+	this.outputStarts[this.states.length] = n;
+	for (int i = 0; i < this.states.length; i++)
+	    this.states[i].releasePatternIds();
+    }
+
+
+    /**
+       Sets the fail and output links of the children of the given
+       states, and returns those children in breadth-first order.
+       Each piece of the level collects its own children, and the
+       pieces are joined in order.
+     */
+    private State[] nextLevel(final State[] level, ForkJoinPool pool) {
+	final State[][] pieces = new State[(level.length + GRAIN - 1) / GRAIN][];
+	forEachRange(pool, level.length, new Range() {
+		public void run(int from, int to) {
+		    List children = new ArrayList();
+		    for (int i = from; i < to; i++) {
+			State state = level[i];
+			byte[] keys = state.keys();
+			for (int k = 0; k < keys.length; k++) {
+			    byte a = keys[k];
+			    State s = state.get(a);
+			    children.add(s);
+			    State r = state.getFail();
+			    State f;
+			    while ((f = r.get(a)) == null)
+				r = r.getFail();
+			    s.setFail(f);
+			    s.setOutputLink(f.getPatternIds().length > 0
+					    ? f : f.getOutputLink());
+			}
+		    }
+		    pieces[from / GRAIN] = (State[]) children.toArray
+			(new State[children.size()]);
+		}
+	    });
+	int size = 0;
+	for (int p = 0; p < pieces.length; p++)
+	    size += pieces[p].length;
+	State[] result = new State[size];
+	int n = 0;
+	for (int p = 0; p < pieces.length; p++) {
+	    System.arraycopy(pieces[p], 0, result, n, pieces[p].length);
+	    n += pieces[p].length;
+	}
+	return result;
+    }
+
+
+    /**
+       Builds the goto-fail function as a dense table: row s holds,
+       for every byte, the state the search moves to from s.  States
+       are visited one breadth-first level at a time, so the row of a
+       state's fail target is always complete by the time we need it.
+     */
+    private int[] prepareDeterministicTransitions(ForkJoinPool pool) {
+	final int width = this.classCount;
+	final byte[] representatives = this.classRepresentatives();
+	final int[] table = new int[this.states.length * width];
+	for (int start = 0, end; start < this.states.length; start = end) {
+	    end = start + 1;
+	    while (end < this.states.length
+		   && this.depths[end] == this.depths[start])
+		end++;
+	    final int offset = start;
+	    forEachRange(pool, end - start, new Range() {
+		    public void run(int from, int to) {
+			for (int s = offset + from; s < offset + to; s++) {
+			    State state = states[s];
+			    int failRow = (s == 0) ? 0 : state.getFail().getId() * width;
+			    for (int c = 0; c < width; c++) {
+				State target = state.get(representatives[c]);
+				if (target != null)
+				    table[s * width + c] = target.getId();
+				else
+				    table[s * width + c] = table[failRow + c];
+			    }
+			}
+		    }
+		});
+	}
+	return table;
+    }
+
+
+    /**
+       Numbers the byte equivalence classes (see byteClassCount())
+       and gives every state the edge layout that suits its fan-out
+       (see State.compactEdges()), with dense lists getting one
+       column per class.
+     */
+    private void prepareByteClasses(ForkJoinPool pool) {
+	this.classes = byteClasses(this.keywordBytes, this.fold);
+	this.classCount = this.byteClassCount();
+
+	this.root.compactEdges(this.classes, this.classCount);
+	byte[] rootKeys = this.root.keys();
+	List tasks = new ArrayList();
+	for (int i = 0; i < rootKeys.length; i++) {
+	    final State child = this.root.get(rootKeys[i]);
+	    tasks.add(new RecursiveAction() {
+		    protected void compute() {
+			compactEdges(child);
+		    }
+		});
+	}
+	invokeAll(pool, tasks);
+    }
+
+
+    private void compactEdges(State top) {
+	List stack = new ArrayList();
+	stack.add(top);
+	while (! stack.isEmpty()) {
+	    State state = (State) stack.remove(stack.size() - 1);
+	    state.compactEdges(this.classes, this.classCount);
 	    byte[] keys = state.keys();
-	    for (int i = 0; i < keys.length; i++) {
-		State r = state;
-		byte a = keys[i];
-		State s = r.get(a);
-		q.add(s);
-		r = r.getFail();
-		while (r.get(a) == null)
-		    r = r.getFail();
-		s.setFail(r.get(a));
-		s.getOutputs().addAll(r.get(a).getOutputs());
+	    for (int i = 0; i < keys.length; i++)
+		stack.add(state.get(keys[i]));
+	}
+    }
+
+
+    /**
+       Returns the byte each byte value folds to: itself, or, if
+       caseInsensitive is true, the lower case of an ASCII upper case
+       letter.
+     */
+    static byte[] foldTable(boolean caseInsensitive) {
+	byte[] fold = new byte[256];
+	for (int b = 0; b < 256; b++)
+	    fold[b] = (byte) ((caseInsensitive && b >= 'A' && b <= 'Z')
+			      ? b + ('a' - 'A') : b);
+	return fold;
+    }
+
+
+    /**
+       Returns the byte class of every byte value, given which
+       (folded) bytes occur in keywords.  Keyword bytes get classes
+       0, 1, ... in byte order; bytes that fold to a keyword byte
+       share its class; every other byte gets the last class.
+     */
+    static byte[] byteClasses(boolean[] keywordBytes, byte[] fold) {
+	byte[] classes = new byte[256];
+	int count = 0;
+	for (int b = 0; b < 256; b++)
+	    if (keywordBytes[b])
+		classes[b] = (byte) count++;
+	for (int b = 0; b < 256; b++) {
+	    int folded = fold[b] & 0xFF;
+	    if (folded != b)
+		classes[b] = keywordBytes[folded]
+		    ? classes[folded] : (byte) count;
+	    else if (! keywordBytes[b])
+		classes[b] = (byte) count;
+	}
+	return classes;
+    }
+
+
+    /**
+       Returns, for every byte class, a byte of that class as it
+       appears in the (folded) trie.
+     */
+    byte[] classRepresentatives() {
+	byte[] result = new byte[this.classCount];
+	for (int b = 0; b < 256; b++)
+	    result[this.classes[b] & 0xFF] = this.fold[b];
+	return result;
+    }
+
+
+    /**
+       Returns a case-folded copy of the keyword, or the keyword
+       itself if this automaton is case sensitive or it has nothing
+       to fold.
+     */
+    private byte[] fold(byte[] keyword) {
+	byte[] result = keyword;
+	for (int i = 0; i < keyword.length; i++) {
+	    byte b = this.fold[keyword[i] & 0xFF];
+	    if (b != keyword[i]) {
+		if (result == keyword)
+		    result = keyword.clone();
+		result[i] = b;
 	    }
 	}
+	return result;
+    }
+
+
+    /**
+       Runs the tasks in the pool and waits for them all, or runs
+       them one after the other on this thread if there is no pool.
+     */
+    private static void invokeAll(ForkJoinPool pool, final List tasks) {
+	if (pool == null) {
+	    for (int i = 0; i < tasks.size(); i++)
+		((RecursiveAction) tasks.get(i)).invoke();
+	    return;
+	}
+	pool.invoke(new RecursiveAction() {
+		protected void compute() {
+		    invokeAll(tasks);
+		}
+	    });
+    }
+
+
+    /**
+       Calls range.run(from, to) over pieces of [0, n) that each
+       start at a multiple of GRAIN, in the pool if there is one and
+       there is more than one piece.
+     */
+    private static void forEachRange(ForkJoinPool pool, int n, Range range) {
+	if (pool == null || n <= GRAIN) {
+	    for (int from = 0; from < n; from += GRAIN)
+		range.run(from, Math.min(n, from + GRAIN));
+	    return;
+	}
+	pool.invoke(new RangeTask(range, 0, n));
+    }
+
+
+    private interface Range {
+	void run(int from, int to);
+    }
+
+
+    private static class RangeTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	private final Range range;
+	private final int from;
+	private final int to;
+
+	RangeTask(Range range, int from, int to) {
+	    this.range = range;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	protected void compute() {
+	    int pieces = (to - from + GRAIN - 1) / GRAIN;
+	    if (pieces <= 1) {
+		range.run(from, to);
+		return;
+	    }
+	    int middle = from + (pieces / 2) * GRAIN;
+	    invokeAll(new RangeTask(range, from, middle),
+		      new RangeTask(range, middle, to));
+	}
     }
 
 
@@ -130,6 +735,95 @@ public class AhoCorasick {
 
 
 
+    /**
+       Returns the id of the state reached from state s on the
+       unsigned byte c, using whichever transition table the
+       automaton was prepared with.  Package protected.
+     */
+    int transition(int s, int c) {
+	if (this.deterministic != null)
+	    return this.deterministic[s * this.classCount
+				      + (this.classes[c] & 0xFF)];
+	if (this.compiled != null)
+	    return this.compiled.transition(s, this.classes[c] & 0xFF);
+	State state = this.states[s];
+	byte b = this.fold[c];
+	State next;
+	while ((next = state.get(b)) == null)
+	    state = state.getFail();
+	return next.getId();
+    }
+
+
+
+    /**
+       Returns true once prepare() has been called.
+     */
+    boolean isPrepared() {
+	return this.prepared;
+    }
+
+
+
+    /**
+       Returns true if any keyword ends at state s.
+     */
+    boolean isTerminal(int s) {
+	return this.terminal[s];
+    }
+
+
+
+    int depth(int s) {
+	return this.depths[s];
+    }
+
+
+    int outputLink(int s) {
+	return this.outputLinks[s];
+    }
+
+
+    int outputStart(int s) {
+	return this.outputStarts[s];
+    }
+
+
+    int outputId(int j) {
+	return this.outputIds[j];
+    }
+
+
+
+    /**
+       Returns the ids of the keywords that end exactly at the given
+       state, without following output links.
+     */
+    int[] getPatternIds(State state) {
+	int s = state.getId();
+	int[] result = new int[this.outputStarts[s + 1] - this.outputStarts[s]];
+	System.arraycopy(this.outputIds, this.outputStarts[s],
+			 result, 0, result.length);
+	return result;
+    }
+
+
+
+    /**
+       Returns the outputs of every keyword that ends at the given
+       state, output links included.  Backs
+       SearchResult.getOutputs().
+     */
+    Set getOutputs(State state) {
+	Set result = new HashSet();
+	for (int t = state.getId(); t >= 0; t = this.outputLinks[t])
+	    for (int j = this.outputStarts[t]; j < this.outputStarts[t + 1]; j++)
+		result.add(this.patterns.get(this.outputIds[j]));
+	return result;
+    }
+
+
+
     /**
        Returns the root of the tree.  Package protected, since the
        user probably shouldn't touch this.
@@ -148,7 +842,7 @@ public class AhoCorasick {
 	    throw new IllegalStateException
 		("can't start search until prepare()");
 	return continueSearch
-	    (new SearchResult(this.root, bytes, 0));
+	    (new SearchResult(this, this.root, bytes, 0));
     }
 
 
@@ -158,15 +852,69 @@ public class AhoCorasick {
        lastResult.  Package protected.
      */
     SearchResult continueSearch(SearchResult lastResult) {
+	if (this.deterministic != null)
+	    return continueDeterministicSearch(lastResult);
+	if (this.compiled != null)
+	    return continueCompiledSearch(lastResult);
 	byte[] bytes = lastResult.bytes;
+	Prefilter prefilter = this.prefilter();
 	State state = lastResult.lastMatchedState;
 	for (int i = lastResult.lastIndex; i < bytes.length; i++) {
-	    byte b = bytes[i];
-	    while (state.get(b) == null)
+	    if (state == this.root && prefilter != null
+		&& (i = prefilter.skip(bytes, i, bytes.length)) == bytes.length)
+		break;
+	    byte b = this.fold[bytes[i] & 0xFF];
+	    State next;
+	    while ((next = state.get(b)) == null)
 		state = state.getFail();
-	    state = state.get(b);
-	    if (state.getOutputs().size() > 0)
-		return new SearchResult(state, bytes, i+1);
+	    state = next;
+	    if (this.terminal[state.getId()])
+		return new SearchResult(this, state, bytes, i+1);
+	}
+	return null;
+    }
+
+
+
+    /**
+       continueSearch() over the double-array table built by
+       compile().
+     */
+    private SearchResult continueCompiledSearch(SearchResult lastResult) {
+	byte[] bytes = lastResult.bytes;
+	DoubleArray table = this.compiled;
+	Prefilter prefilter = this.prefilter();
+	int s = lastResult.lastMatchedState.getId();
+	for (int i = lastResult.lastIndex; i < bytes.length; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skip(bytes, i, bytes.length)) == bytes.length)
+		break;
+	    s = table.transition(s, this.classes[bytes[i] & 0xFF] & 0xFF);
+	    if (this.terminal[s])
+		return new SearchResult(this, this.states[s], bytes, i+1);
+	}
+	return null;
+    }
+
+
+
+    /**
+       continueSearch() over the table built by prepare(true).
+     */
+    private SearchResult continueDeterministicSearch(SearchResult lastResult) {
+	byte[] bytes = lastResult.bytes;
+	int[] table = this.deterministic;
+	byte[] classes = this.classes;
+	int width = this.classCount;
+	Prefilter prefilter = this.prefilter();
+	int s = lastResult.lastMatchedState.getId();
+	for (int i = lastResult.lastIndex; i < bytes.length; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skip(bytes, i, bytes.length)) == bytes.length)
+		break;
+	    s = table[s * width + (classes[bytes[i] & 0xFF] & 0xFF)];
+	    if (this.terminal[s])
+		return new SearchResult(this, this.states[s], bytes, i+1);
 	}
 	return null;
     }
@@ -0,0 +1,452 @@
+package org.arabidopsis.ahocorasick;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+
+/**
+   <p>The search side of a prepared Aho-Corasick automaton, written
+   against a handful of flat per-state tables: the transition
+   function, each state's depth and output link, and the pattern ids
+   of the keywords that end at it.  AhoCorasick keeps those tables in
+   int arrays next to its trie; FrozenAhoCorasick reads them out of
+   ByteBuffers.  Either way, the searches below, StreamSearcher,
+   LeftmostSearcher and MappedFileScanner work the same.</p>
+
+   <p>States are numbered breadth-first, with the root at 0.</p>
+ */
+public abstract class Automaton {
+    // Skips ahead while the search is at the root, or null
+    private volatile Prefilter prefilter;
+
+    Automaton() {
+    }
+
+
+    /**
+       Returns the output that was added with the given pattern id.
+     */
+    public abstract Object getOutput(int patternId);
+
+
+    /**
+       Returns the length in bytes of the keyword with the given
+       pattern id.  A match reported at lastIndex starts at lastIndex
+       minus this length.
+     */
+    public abstract int getKeywordLength(int patternId);
+
+
+    /**
+       Returns the number of keywords.
+     */
+    public abstract int patternCount();
+
+
+    /**
+       Returns the length in bytes of the longest keyword.  No match
+       can span more bytes than this.
+     */
+    public abstract int maxKeywordLength();
+
+
+    /**
+       Returns the number of states in the automaton, the root
+       included.
+     */
+    public abstract int stateCount();
+
+
+
+    /**
+       Searches bytes[off, off + len) and calls the handler for every
+       keyword found, in the order their matches end.  Indices passed
+       to the handler are indices into bytes.  Nothing is allocated
+       per match.  Returns false if the handler stopped the search,
+       true if it ran to the end.
+     */
+    public boolean search(byte[] bytes, int off, int len,
+			  MatchHandler handler) {
+	this.checkSearch(bytes, off, len);
+	Prefilter prefilter = this.prefilter;
+	int s = 0;
+	for (int i = off, end = off + len; i < end; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skip(bytes, i, end)) == end)
+		break;
+	    s = this.transition(s, bytes[i] & 0xFF);
+	    if (! this.isTerminal(s))
+		continue;
+	    for (int t = s; t >= 0; t = this.outputLink(t))
+		for (int j = this.outputStart(t); j < this.outputStart(t + 1); j++)
+		    if (! handler.onMatch(this.outputId(j), i + 1))
+			return false;
+	}
+	return true;
+    }
+
+
+
+    /**
+       Returns true if any keyword occurs in bytes[off, off + len).
+       Stops at the first match.
+     */
+    public boolean containsAny(byte[] bytes, int off, int len) {
+	this.checkSearch(bytes, off, len);
+	Prefilter prefilter = this.prefilter;
+	int s = 0;
+	for (int i = off, end = off + len; i < end; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skip(bytes, i, end)) == end)
+		break;
+	    s = this.transition(s, bytes[i] & 0xFF);
+	    if (this.isTerminal(s))
+		return true;
+	}
+	return false;
+    }
+
+
+
+    /**
+       Like search(byte[], int, int, MatchHandler), over the bytes
+       between the buffer's position and its limit.  Heap and direct
+       buffers alike are read in place, and the buffer's position is
+       left alone.  Indices passed to the handler are indices into
+       the buffer.
+     */
+    public boolean search(ByteBuffer buffer, MatchHandler handler) {
+	this.checkPrepared();
+	Prefilter prefilter = this.prefilter;
+	int s = 0;
+	for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skip(buffer, i, end)) == end)
+		break;
+	    s = this.transition(s, buffer.get(i) & 0xFF);
+	    if (! this.isTerminal(s))
+		continue;
+	    for (int t = s; t >= 0; t = this.outputLink(t))
+		for (int j = this.outputStart(t); j < this.outputStart(t + 1); j++)
+		    if (! handler.onMatch(this.outputId(j), i + 1))
+			return false;
+	}
+	return true;
+    }
+
+
+
+    /**
+       Returns true if any keyword occurs between the buffer's
+       position and its limit.  Stops at the first match.
+     */
+    public boolean containsAny(ByteBuffer buffer) {
+	this.checkPrepared();
+	Prefilter prefilter = this.prefilter;
+	int s = 0;
+	for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skip(buffer, i, end)) == end)
+		break;
+	    s = this.transition(s, buffer.get(i) & 0xFF);
+	    if (this.isTerminal(s))
+		return true;
+	}
+	return false;
+    }
+
+
+
+    /**
+       Searches bytes[off, off + len) and sets the bit of every
+       pattern id found.  Returns the number of matches, counting
+       repeats.
+     */
+    public int search(byte[] bytes, int off, int len, BitSet found) {
+	this.checkSearch(bytes, off, len);
+	int count = 0;
+	Prefilter prefilter = this.prefilter;
+	int s = 0;
+	for (int i = off, end = off + len; i < end; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skip(bytes, i, end)) == end)
+		break;
+	    s = this.transition(s, bytes[i] & 0xFF);
+	    if (! this.isTerminal(s))
+		continue;
+	    for (int t = s; t >= 0; t = this.outputLink(t)) {
+		for (int j = this.outputStart(t); j < this.outputStart(t + 1); j++)
+		    found.set(this.outputId(j));
+		count += this.outputStart(t + 1) - this.outputStart(t);
+	    }
+	}
+	return count;
+    }
+
+
+
+    /**
+       Searches bytes[off, off + len) and writes the pattern ids of
+       the matches into patternIds, in the order the matches end,
+       stopping once the array is full.  Returns the number of ids
+       written.
+     */
+    public int search(byte[] bytes, int off, int len, int[] patternIds) {
+	this.checkSearch(bytes, off, len);
+	int n = 0;
+	Prefilter prefilter = this.prefilter;
+	int s = 0;
+	for (int i = off, end = off + len; i < end; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skip(bytes, i, end)) == end)
+		break;
+	    s = this.transition(s, bytes[i] & 0xFF);
+	    if (! this.isTerminal(s))
+		continue;
+	    for (int t = s; t >= 0; t = this.outputLink(t)) {
+		for (int j = this.outputStart(t); j < this.outputStart(t + 1); j++) {
+		    if (n == patternIds.length)
+			return n;
+		    patternIds[n++] = this.outputId(j);
+		}
+	    }
+	}
+	return n;
+    }
+
+
+
+    /**
+       Searches bytes[off, off + len) for non-overlapping matches
+       with leftmost-longest semantics: of all the keywords that
+       occur, report the one that starts first and, of those that
+       start there, the longest; then carry on after its end.  The
+       choice is made as the scan goes, with no list of overlapping
+       matches to filter; the scan only backs up to the end of each
+       match reported, which is never more than maxKeywordLength()
+       bytes.  Indices passed to the handler are indices into bytes.
+       Returns false if the handler stopped the search.
+     */
+    public boolean searchLeftmostLongest(byte[] bytes, int off, int len,
+					 MatchHandler handler) {
+	return this.searchLeftmost(bytes, off, len, true, handler);
+    }
+
+
+
+    /**
+       Like searchLeftmostLongest(), but with leftmost-first
+       semantics: of the keywords that start at the leftmost match,
+       the one that was add()ed first wins, whatever its length.
+     */
+    public boolean searchLeftmostFirst(byte[] bytes, int off, int len,
+				       MatchHandler handler) {
+	return this.searchLeftmost(bytes, off, len, false, handler);
+    }
+
+
+
+    /**
+       Starts a resumable search that is fed the haystack a piece at
+       a time.  See StreamSearcher.
+     */
+    public StreamSearcher newStreamSearcher() {
+	this.checkPrepared();
+	return new StreamSearcher(this);
+    }
+
+
+
+    /**
+       Starts a resumable leftmost search (longest if longest is
+       true, first otherwise) that is fed the haystack a piece at a
+       time.  See LeftmostSearcher.
+     */
+    public LeftmostSearcher newLeftmostSearcher(boolean longest) {
+	return this.newLeftmostSearcher(longest, null);
+    }
+
+
+
+    /**
+       Like newLeftmostSearcher(boolean), but only matches the
+       filter accepts are candidates; a rejected match never hides a
+       shorter one that ends at the same byte.
+     */
+    public LeftmostSearcher newLeftmostSearcher(boolean longest,
+						MatchFilter filter) {
+	this.checkPrepared();
+	return new LeftmostSearcher(this, longest, filter);
+    }
+
+
+
+    /**
+       Turns the rare-byte prefilter on or off.  With it, the
+       searches skip over stretches of input that cannot hold the
+       start of a keyword, with a scan for the few bytes that every
+       keyword has one of among its first three; results are the same
+       either way.  It stays off if the keywords start with too many
+       different bytes.
+
+       It is off by default.  It pays off when matches are rare and
+       the input comes in long pieces; where matches are dense, or
+       a StreamSearcher is fed a few bytes at a time, the scans find
+       little to skip and only slow the search down.
+     */
+    public void usePrefilter(boolean enabled) {
+	this.checkPrepared();
+	this.prefilter = enabled ? Prefilter.build(this) : null;
+    }
+
+
+
+    /**
+       Returns true if the searches use the prefilter.
+     */
+    public boolean hasPrefilter() {
+	return this.prefilter != null;
+    }
+
+
+    Prefilter prefilter() {
+	return this.prefilter;
+    }
+
+
+
+    /**
+       Returns true once the automaton can be searched.
+     */
+    abstract boolean isPrepared();
+
+
+    /**
+       Returns the id of the state reached from state s on the
+       unsigned byte c.
+     */
+    abstract int transition(int s, int c);
+
+
+    /**
+       Returns true if any keyword ends at state s.
+     */
+    abstract boolean isTerminal(int s);
+
+
+    /**
+       Returns the depth of state s: the length of the longest
+       suffix of the input read so far that could still grow into a
+       keyword.
+     */
+    abstract int depth(int s);
+
+
+    /**
+       Returns the nearest state on the fail chain of state s that
+       has keywords of its own, or -1.
+     */
+    abstract int outputLink(int s);
+
+
+    /**
+       The pattern ids of the keywords that end exactly at state s
+       are outputId(outputStart(s)) up to, but not including,
+       outputId(outputStart(s + 1)).
+     */
+    abstract int outputStart(int s);
+
+
+    abstract int outputId(int j);
+
+
+
+    /**
+       Reports every keyword that ends at state s, following the
+       output links, to the handler.  Returns false if the handler
+       stopped.
+     */
+    boolean report(int s, long lastIndex, StreamMatchHandler handler) {
+	for (int t = s; t >= 0; t = this.outputLink(t))
+	    for (int j = this.outputStart(t); j < this.outputStart(t + 1); j++)
+		if (! handler.onMatch(this.outputId(j), lastIndex))
+		    return false;
+	return true;
+    }
+
+
+
+    /**
+       Returns the id of the longest keyword ending at state s that
+       the filter (if any) accepts, or -1.  Among keywords of the
+       same length, the one added first wins.
+     */
+    int leftmostPatternId(int s, long lastIndex, MatchFilter filter) {
+	for (int t = s; t >= 0; t = this.outputLink(t))
+	    for (int j = this.outputStart(t); j < this.outputStart(t + 1); j++)
+		if (filter == null || filter.accept(this.outputId(j), lastIndex))
+		    return this.outputId(j);
+	return -1;
+    }
+
+
+
+    /**
+       The single pass behind searchLeftmostLongest() and
+       searchLeftmostFirst().  The state's depth tells how far back
+       the earliest match still in progress starts, and it never
+       moves left; once it has moved past the start of the best
+       match seen so far, nothing can beat that match any more.
+     */
+    private boolean searchLeftmost(byte[] bytes, int off, int len,
+				   boolean longest, MatchHandler handler) {
+	this.checkSearch(bytes, off, len);
+	Prefilter prefilter = this.prefilter;
+	int end = off + len;
+	int i = off;
+	while (i < end) {
+	    int s = 0;
+	    int match = -1;
+	    int matchStart = 0;
+	    int matchEnd = 0;
+	    for (; i < end; i++) {
+		if (s == 0 && match < 0 && prefilter != null
+		    && (i = prefilter.skip(bytes, i, end)) == end)
+		    break;
+		s = this.transition(s, bytes[i] & 0xFF);
+		if (match >= 0 && i + 1 - this.depth(s) > matchStart)
+		    break;
+		if (! this.isTerminal(s))
+		    continue;
+		int id = this.leftmostPatternId(s, i + 1, null);
+		int start = i + 1 - this.getKeywordLength(id);
+		if (match < 0 || start < matchStart
+		    || (start == matchStart && (longest || id < match))) {
+		    match = id;
+		    matchStart = start;
+		    matchEnd = i + 1;
+		}
+	    }
+	    if (match < 0)
+		return true;
+	    if (! handler.onMatch(match, matchEnd))
+		return false;
+	    i = matchEnd;
+	}
+	return true;
+    }
+
+
+    void checkPrepared() {
+	if (! this.isPrepared())
+	    throw new IllegalStateException
+		("can't start search until prepare()");
+    }
+
+
+    private void checkSearch(byte[] bytes, int off, int len) {
+	this.checkPrepared();
+	if (off < 0 || len < 0 || off + len > bytes.length)
+	    throw new IndexOutOfBoundsException();
+    }
+}
@@ -3,16 +3,36 @@ package org.arabidopsis.ahocorasick;
 
 /**
    Represents an EdgeList by using a single array.  Very fast lookup
-   (just an array access), but expensive in terms of memory.
+   (just an array access), but expensive in terms of memory.  Once
+   the byte classes of the automaton are known, the array can be
+   shrunk to one slot per class instead of one per byte value (see
+   AhoCorasick.byteClassCount()).
  */
 
 class DenseEdgeList implements EdgeList {    
+    private static final byte[] IDENTITY = new byte[256];
+    static {
+	for (int i = 0; i < IDENTITY.length; i++)
+	    IDENTITY[i] = (byte) i;
+    }
+
+    private byte[] classes;
     private State[] array;
+    private byte[] slotKeys;
 
     public DenseEdgeList() {
-	this.array = new State[256];
-	for (int i = 0; i < array.length; i++)
-	    this.array[i] = null;
+	this(IDENTITY, 256);
+    }
+
+
+    /**
+       Creates an empty list with width slots; byte b goes to slot
+       classes[b].  Bytes in the same class share a slot.
+     */
+    public DenseEdgeList(byte[] classes, int width) {
+	this.classes = classes;
+	this.array = new State[width];
+	this.slotKeys = new byte[width];
     }
     
 
@@ -20,8 +40,19 @@ class DenseEdgeList implements EdgeList {
        Helps in converting to dense representation.
      */
     public static DenseEdgeList fromSparse(SparseEdgeList list) {
+	return copyOf(list, IDENTITY, 256);
+    }
+
+
+    /**
+       Returns a dense copy of any edge list that uses the given byte
+       classes.  Bytes that share a class must lead to the same
+       state.
+     */
+    public static DenseEdgeList copyOf(EdgeList list, byte[] classes,
+				       int width) {
 	byte[] keys = list.keys();
-	DenseEdgeList newInstance = new DenseEdgeList();
+	DenseEdgeList newInstance = new DenseEdgeList(classes, width);
 	for (int i = 0; i < keys.length; i++) {
 	    newInstance.put(keys[i], list.get(keys[i]));
 	}
@@ -29,16 +60,31 @@ class DenseEdgeList implements EdgeList {
     }
 
 
+    /**
+       Returns the number of slots.
+     */
+    public int width() {
+	return this.array.length;
+    }
+
+
     public State get(byte b) {
-	return this.array[(int) b & 0xFF];
+	return this.array[this.classes[(int) b & 0xFF] & 0xFF];
     }
 
 
     public void put(byte b, State s) {
-	this.array[(int) b & 0xFF] = s;
+	int slot = this.classes[(int) b & 0xFF] & 0xFF;
+	if (this.array[slot] == null)
+	    this.slotKeys[slot] = b;
+	this.array[slot] = s;
     }
 
 
+    /**
+       Returns one key per occupied slot: the byte the slot was
+       first filled with.
+     */
     public byte[] keys() {
 	int length = 0;
 	for(int i = 0; i < array.length; i++) {
@@ -49,7 +95,7 @@ class DenseEdgeList implements EdgeList {
 	int j = 0;
 	for(int i = 0; i < array.length; i++) {
 	    if (array[i] != null) {
-		result[j] = (byte) i;
+		result[j] = slotKeys[i];
 		j++;
 	    }
 	}
@@ -0,0 +1,229 @@
+package org.arabidopsis.ahocorasick;
+
+import java.util.Arrays;
+
+
+/**
+   <p>A frozen copy of a prepared automaton, laid out as a double
+   array.  State i owns the slots base[i] + c for each byte class c
+   (see AhoCorasick.byteClassCount()) it has an edge on; a slot
+   belongs to state i only if check[slot] == i, and next[slot]
+   holds the id of the target state.  Fail links are kept in a
+   parallel array, so a transition is a handful of int reads
+   instead of a walk through State and EdgeList objects.</p>
+
+   <p>State ids are the breadth-first ids assigned by
+   AhoCorasick.prepare(), with the root at 0.</p>
+ */
+class DoubleArray {
+    private static final int FREE = -1;
+
+    // How many candidate bases to try before giving up on filling
+    // holes and placing a state past the end of the table.
+    private static final int MAX_TRIES = 256;
+
+    final int[] base;
+    final int[] check;
+    final int[] next;
+    final int[] fail;
+
+
+    DoubleArray(State[] states, byte[] classes, byte[] representatives) {
+	this.base = new int[states.length];
+	this.fail = new int[states.length];
+	Packer packer = new Packer(representatives.length);
+	for (int i = 0; i < states.length; i++) {
+	    State state = states[i];
+	    this.fail[i] = (i == 0) ? 0 : state.getFail().getId();
+	    int[] keys = ownKeys(state, classes);
+	    if (keys.length == 0)
+		continue;
+	    int b = packer.place(keys, keys.length);
+	    this.base[i] = b;
+	    for (int k = 0; k < keys.length; k++)
+		packer.set(b + keys[k], i,
+			   state.get(representatives[keys[k]]).getId());
+	}
+	this.check = packer.check();
+	this.next = packer.next();
+    }
+
+
+    /**
+       Lays out a trie that is given as arrays rather than States:
+       its states are numbered breadth-first, so the children of
+       state i are the states childStarts[i] up to, but not
+       including, childStarts[i + 1], and labels[c] is the byte on
+       the edge into state c.  The children of each state must come
+       in increasing order of their labels.  fail is kept, not
+       copied.
+     */
+    DoubleArray(int[] childStarts, byte[] labels, int[] fail,
+		byte[] classes, int width) {
+	this.base = new int[fail.length];
+	this.fail = fail;
+	Packer packer = new Packer(width);
+	int[] keys = new int[256];
+	for (int i = 0; i < fail.length; i++) {
+	    int first = childStarts[i];
+	    int count = childStarts[i + 1] - first;
+	    if (count == 0)
+		continue;
+	    for (int k = 0; k < count; k++)
+		keys[k] = classes[labels[first + k] & 0xFF] & 0xFF;
+	    int b = packer.place(keys, count);
+	    this.base[i] = b;
+	    for (int k = 0; k < count; k++)
+		packer.set(b + keys[k], i, first + k);
+	}
+	this.check = packer.check();
+	this.next = packer.next();
+    }
+
+
+    /**
+       Returns the id of the state reached from state s on byte
+       class c, following fail links as needed.
+     */
+    int transition(int s, int c) {
+	while (true) {
+	    int t = this.base[s] + c;
+	    if (this.check[t] == s)
+		return this.next[t];
+	    if (s == 0)
+		return 0;
+	    s = this.fail[s];
+	}
+    }
+
+
+    /**
+       Returns the number of slots in the transition table.
+     */
+    int capacity() {
+	return this.check.length;
+    }
+
+
+    /**
+       Returns the byte classes of the real (goto) edges of a state,
+       in increasing order and without repeats.  Root self-loops
+       added by AhoCorasick.prepare() are left out; transition()
+       handles them.
+     */
+    private static int[] ownKeys(State state, byte[] classes) {
+	byte[] keys = state.keys();
+	int[] result = new int[keys.length];
+	int n = 0;
+	for (int i = 0; i < keys.length; i++) {
+	    if (state.getId() == 0 && state.get(keys[i]) == state)
+		continue;
+	    result[n++] = classes[keys[i] & 0xFF] & 0xFF;
+	}
+	Arrays.sort(result, 0, n);
+	int unique = 0;
+	for (int i = 0; i < n; i++)
+	    if (unique == 0 || result[unique - 1] != result[i])
+		result[unique++] = result[i];
+	return Arrays.copyOf(result, unique);
+    }
+
+
+    /**
+       Returns the first free slot at or after p.  free[] is a
+       union-find forest where every free slot is its own root and
+       every used slot points further right; lookups compress the
+       paths they walk.
+     */
+    private static int nextFree(int[] free, int p) {
+	int root = p;
+	while (free[root] != root)
+	    root = free[root];
+	while (free[p] != root) {
+	    int n = free[p];
+	    free[p] = root;
+	    p = n;
+	}
+	return root;
+    }
+
+
+    /**
+       Finds room for the rows of the states, one state at a time.
+     */
+    private static class Packer {
+	private final int width;
+	private int[] check = new int[1024];
+	private int[] next = new int[1024];
+	private int[] free = new int[1024];
+	private int limit;
+
+	Packer(int width) {
+	    this.width = width;
+	    this.limit = width;
+	    Arrays.fill(this.check, FREE);
+	    for (int p = 0; p < this.free.length; p++)
+		this.free[p] = p;
+	}
+
+	/**
+	   Returns a base at which the slots of the first count keys,
+	   which are sorted, are all free, and reserves its row.
+	 */
+	int place(int[] keys, int count) {
+	    // Make sure everything a base could touch, up to one row
+	    // past the end of the used area, is allocated.
+	    if (this.limit + 512 >= this.check.length) {
+		int oldLength = this.check.length;
+		int length = Math.max(oldLength * 2, this.limit + 1024);
+		this.check = Arrays.copyOf(this.check, length);
+		this.next = Arrays.copyOf(this.next, length);
+		this.free = Arrays.copyOf(this.free, length);
+		Arrays.fill(this.check, oldLength, length, FREE);
+		for (int p = oldLength; p < length; p++)
+		    this.free[p] = p;
+	    }
+
+	    // First fit, visiting only free slots for the smallest
+	    // key.  Crowded states give up after a while and go just
+	    // past the used area, where everything is free.
+	    int b = -1;
+	    int tries = 0;
+	    for (int p = nextFree(this.free, keys[0]);
+		 p < this.limit && tries < MAX_TRIES;
+		 p = nextFree(this.free, p + 1), tries++) {
+		if (fits(this.check, p - keys[0], keys, count)) {
+		    b = p - keys[0];
+		    break;
+		}
+	    }
+	    if (b < 0)
+		b = this.limit - keys[0];
+	    this.limit = Math.max(this.limit, b + this.width);
+	    return b;
+	}
+
+	void set(int slot, int state, int target) {
+	    this.check[slot] = state;
+	    this.next[slot] = target;
+	    this.free[slot] = slot + 1;
+	}
+
+	// Pad so that base[s] + c is always a valid index.
+	int[] check() {
+	    return Arrays.copyOf(this.check, this.limit + 1);
+	}
+
+	int[] next() {
+	    return Arrays.copyOf(this.next, this.limit + 1);
+	}
+    }
+
+
+    private static boolean fits(int[] check, int b, int[] keys, int count) {
+	for (int k = 0; k < count; k++)
+	    if (check[b + keys[k]] != FREE)
+		return false;
+	return true;
+    }
+}
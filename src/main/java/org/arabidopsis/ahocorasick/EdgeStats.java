@@ -0,0 +1,92 @@
+package org.arabidopsis.ahocorasick;
+
+
+/**
+   How many states of an automaton keep their edges in each layout.
+   Before prepare(), states hold sparse (linked) or dense lists;
+   prepare() moves every state to the layout that suits its fan-out:
+   none, a single edge inline in the state, a small sorted array, or
+   a dense array with one slot per byte class.  See AhoCorasick.edgeStats().
+ */
+public class EdgeStats {
+    private int empty;
+    private int single;
+    private int sorted;
+    private int sparse;
+    private int dense;
+    private long denseSlots;
+
+    EdgeStats() {
+    }
+
+
+    void add(EdgeList list) {
+	if (list instanceof DenseEdgeList) {
+	    this.dense++;
+	    this.denseSlots += ((DenseEdgeList) list).width();
+	} else if (list.keys().length == 0)
+	    this.empty++;
+	else if (list instanceof SortedEdgeList)
+	    this.sorted++;
+	else
+	    this.sparse++;
+    }
+
+
+    void addSingle() {
+	this.single++;
+    }
+
+
+    void addEmpty() {
+	this.empty++;
+    }
+
+
+    /**
+       Returns the number of states with no edges.
+     */
+    public int getEmptyCount() {
+	return this.empty;
+    }
+
+
+    public int getSingleCount() {
+	return this.single;
+    }
+
+
+    public int getSortedCount() {
+	return this.sorted;
+    }
+
+
+    /**
+       Returns the number of states that still keep their edges in a
+       linked list, which only happens before prepare().
+     */
+    public int getSparseCount() {
+	return this.sparse;
+    }
+
+
+    public int getDenseCount() {
+	return this.dense;
+    }
+
+
+    /**
+       Returns the total number of slots in the dense arrays, empty
+       ones included.
+     */
+    public long getDenseSlots() {
+	return this.denseSlots;
+    }
+
+
+    public String toString() {
+	return "EdgeStats[empty=" + this.empty + ", single=" + this.single
+	    + ", sorted=" + this.sorted + ", sparse=" + this.sparse
+	    + ", dense=" + this.dense + " (" + this.denseSlots + " slots)]";
+    }
+}
@@ -0,0 +1,488 @@
+package org.arabidopsis.ahocorasick;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+   <p>A prepared automaton that lives in ByteBuffers rather than in
+   State objects, out of the garbage collector's way.  It is either
+   memory-mapped from a snapshot written by AhoCorasick.save(), or
+   copied into direct buffers by AhoCorasick.freeze().  Loading maps
+   the file and reads a header; nothing else is copied onto the
+   heap, and several JVMs that load the same file share its pages.
+   Freezing keeps only the outputs on the heap.  Either way each
+   table must fit in one buffer, that is under 2 GB.  Searching
+   works as with AhoCorasick (see Automaton); transitions go
+   through a double array, as after AhoCorasick.compile().</p>
+
+   <p>A snapshot is little-endian throughout:</p>
+   <ul>
+   <li>a header of HEADER_SIZE bytes: the magic "ACSN", the format
+   VERSION, then the number of states, of double-array slots, of
+   keywords, the longest keyword and the size of the output blob,
+   each an int;</li>
+   <li>the byte class of each of the 256 byte values;</li>
+   <li>int tables: base, fail, depth and output link per state,
+   stateCount + 1 output starts, check and next per slot, the
+   pattern ids, then keyword length, output offset and output
+   length (-1 for null) per keyword;</li>
+   <li>one byte per state, 1 if the state is terminal;</li>
+   <li>the outputs, UTF-8 encoded, end to end.</li>
+   </ul>
+
+   <p>
+   Example usage:
+   <code><pre>
+       tree.save(Paths.get("words.acsn"));
+       ...
+       FrozenAhoCorasick frozen = FrozenAhoCorasick.load(Paths.get("words.acsn"));
+       frozen.search(bytes, 0, bytes.length, handler);
+   </pre></code>
+   </p>
+ */
+public class FrozenAhoCorasick extends Automaton {
+    static final int MAGIC = 'A' | 'C' << 8 | 'S' << 16 | 'N' << 24;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    private final byte[] classes;
+    private final int stateCount;
+    private final int patternCount;
+    private final int maxKeywordLength;
+    private final IntBuffer base;
+    private final IntBuffer fail;
+    private final IntBuffer depths;
+    private final IntBuffer outputLinks;
+    private final IntBuffer outputStarts;
+    private final IntBuffer check;
+    private final IntBuffer next;
+    private final IntBuffer outputIds;
+    private final IntBuffer keywordLengths;
+    private final IntBuffer outputOffsets;
+    private final IntBuffer outputLengths;
+    private final ByteBuffer terminal;
+    private final ByteBuffer outputs;
+    private final Object[] heapOutputs;
+    private final long sizeInBytes;
+
+
+    private FrozenAhoCorasick(Region region, Object[] heapOutputs)
+	throws IOException {
+	ByteBuffer header = region.bytes(HEADER_SIZE + 256);
+	if (header.getInt(0) != MAGIC)
+	    throw new IOException("not an AhoCorasick snapshot");
+	if (header.getInt(4) != VERSION)
+	    throw new IOException
+		("unsupported snapshot version " + header.getInt(4));
+	this.stateCount = header.getInt(8);
+	int slots = header.getInt(12);
+	this.patternCount = header.getInt(16);
+	this.maxKeywordLength = header.getInt(20);
+	int outputBytes = header.getInt(24);
+	this.classes = new byte[256];
+	((Buffer) header).position(HEADER_SIZE);
+	header.get(this.classes);
+
+	this.base = region.ints(this.stateCount);
+	this.fail = region.ints(this.stateCount);
+	this.depths = region.ints(this.stateCount);
+	this.outputLinks = region.ints(this.stateCount);
+	this.outputStarts = region.ints(this.stateCount + 1);
+	this.check = region.ints(slots);
+	this.next = region.ints(slots);
+	this.outputIds = region.ints(this.patternCount);
+	this.keywordLengths = region.ints(this.patternCount);
+	this.outputOffsets = region.ints(this.patternCount);
+	this.outputLengths = region.ints(this.patternCount);
+	this.terminal = region.bytes(this.stateCount);
+	this.outputs = region.bytes(outputBytes);
+	region.finish();
+	this.heapOutputs = heapOutputs;
+	this.sizeInBytes = region.position;
+    }
+
+
+    /**
+       Maps a snapshot written by AhoCorasick.save().  The mapping
+       outlives the file being closed; it is released when the
+       FrozenAhoCorasick is garbage collected.
+     */
+    public static FrozenAhoCorasick load(Path file) throws IOException {
+	try (FileChannel channel = FileChannel.open
+	     (file, StandardOpenOption.READ)) {
+	    return new FrozenAhoCorasick(new MappedRegion(channel), null);
+	}
+    }
+
+
+    /**
+       Copies a prepared automaton, with the given byte classes and
+       whose transitions have been laid out in the given double
+       array, into direct ByteBuffers.  The outputs are kept as they
+       are, on the heap.  Backs AhoCorasick.freeze().
+     */
+    static FrozenAhoCorasick freeze(Automaton tree, byte[] classes,
+				    DoubleArray table) {
+	int states = tree.stateCount();
+	int patterns = tree.patternCount();
+	long[] sizes = {
+	    HEADER_SIZE + 256,
+	    4L * states, 4L * states, 4L * states, 4L * states,
+	    4L * (states + 1),
+	    4L * table.capacity(), 4L * table.capacity(),
+	    4L * patterns, 4L * patterns, 4L * patterns, 4L * patterns,
+	    states, 0 };
+	ByteBuffer[] buffers = new ByteBuffer[sizes.length];
+	for (int i = 0; i < sizes.length; i++) {
+	    if (sizes[i] > Integer.MAX_VALUE)
+		throw new IllegalStateException
+		    ("table too large for one buffer");
+	    buffers[i] = ByteBuffer.allocateDirect((int) sizes[i]);
+	}
+	Object[] outputs = new Object[patterns];
+	for (int id = 0; id < patterns; id++)
+	    outputs[id] = tree.getOutput(id);
+	try {
+	    write(tree, classes, table, false, new BuffersChannel(buffers));
+	    return new FrozenAhoCorasick(new BuffersRegion(buffers), outputs);
+	} catch (IOException e) {
+	    // Neither side touches a file.
+	    throw new IllegalStateException(e);
+	}
+    }
+
+
+    public Object getOutput(int patternId) {
+	if (this.heapOutputs != null)
+	    return this.heapOutputs[patternId];
+	int length = this.outputLengths.get(patternId);
+	if (length < 0)
+	    return null;
+	byte[] bytes = new byte[length];
+	ByteBuffer outputs = this.outputs.duplicate();
+	((Buffer) outputs).position(this.outputOffsets.get(patternId));
+	outputs.get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    public int getKeywordLength(int patternId) {
+	return this.keywordLengths.get(patternId);
+    }
+
+
+    public int patternCount() {
+	return this.patternCount;
+    }
+
+
+    public int maxKeywordLength() {
+	return this.maxKeywordLength;
+    }
+
+
+    public int stateCount() {
+	return this.stateCount;
+    }
+
+
+    /**
+       Returns the number of bytes of mapped or direct memory the
+       automaton's tables take.
+     */
+    public long sizeInBytes() {
+	return this.sizeInBytes;
+    }
+
+
+    boolean isPrepared() {
+	return true;
+    }
+
+
+    int transition(int s, int c) {
+	int k = this.classes[c] & 0xFF;
+	while (true) {
+	    int t = this.base.get(s) + k;
+	    if (this.check.get(t) == s)
+		return this.next.get(t);
+	    if (s == 0)
+		return 0;
+	    s = this.fail.get(s);
+	}
+    }
+
+
+    boolean isTerminal(int s) {
+	return this.terminal.get(s) != 0;
+    }
+
+
+    int depth(int s) {
+	return this.depths.get(s);
+    }
+
+
+    int outputLink(int s) {
+	return this.outputLinks.get(s);
+    }
+
+
+    int outputStart(int s) {
+	return this.outputStarts.get(s);
+    }
+
+
+    int outputId(int j) {
+	return this.outputIds.get(j);
+    }
+
+
+
+    /**
+       Writes a snapshot of a prepared automaton, with the given byte
+       classes and whose transitions have been laid out in the given
+       double array.  If withOutputs is true, outputs must be Strings
+       or null; otherwise they are all written as null.  Backs
+       AhoCorasick.save().
+     */
+    static void write(Automaton tree, byte[] classes, DoubleArray table,
+		      boolean withOutputs, WritableByteChannel channel)
+	throws IOException {
+	int states = tree.stateCount();
+	int patterns = tree.patternCount();
+	byte[][] outputs = new byte[patterns][];
+	int outputBytes = 0;
+	for (int id = 0; withOutputs && id < patterns; id++) {
+	    Object output = tree.getOutput(id);
+	    if (output != null && ! (output instanceof String))
+		throw new IllegalArgumentException
+		    ("only String outputs can be saved, not " + output.getClass().getName());
+	    if (output != null) {
+		outputs[id] = ((String) output).getBytes(StandardCharsets.UTF_8);
+		if (outputBytes + (long) outputs[id].length > Integer.MAX_VALUE)
+		    throw new IllegalArgumentException("outputs too large to save");
+		outputBytes += outputs[id].length;
+	    }
+	}
+
+	Sink out = new Sink(channel);
+	out.putInt(MAGIC);
+	out.putInt(VERSION);
+	out.putInt(states);
+	out.putInt(table.capacity());
+	out.putInt(patterns);
+	out.putInt(tree.maxKeywordLength());
+	out.putInt(outputBytes);
+	for (int i = 28; i < HEADER_SIZE; i += 4)
+	    out.putInt(0);
+	for (int c = 0; c < 256; c++)
+	    out.putByte(classes[c]);
+
+	out.putInts(table.base, states);
+	out.putInts(table.fail, states);
+	for (int s = 0; s < states; s++)
+	    out.putInt(tree.depth(s));
+	for (int s = 0; s < states; s++)
+	    out.putInt(tree.outputLink(s));
+	for (int s = 0; s <= states; s++)
+	    out.putInt(tree.outputStart(s));
+	out.putInts(table.check, table.capacity());
+	out.putInts(table.next, table.capacity());
+	for (int j = 0; j < patterns; j++)
+	    out.putInt(tree.outputId(j));
+	for (int id = 0; id < patterns; id++)
+	    out.putInt(tree.getKeywordLength(id));
+	int offset = 0;
+	for (int id = 0; id < patterns; id++) {
+	    out.putInt(offset);
+	    if (outputs[id] != null)
+		offset += outputs[id].length;
+	}
+	for (int id = 0; id < patterns; id++)
+	    out.putInt((outputs[id] == null) ? -1 : outputs[id].length);
+	for (int s = 0; s < states; s++)
+	    out.putByte((byte) (tree.isTerminal(s) ? 1 : 0));
+	for (int id = 0; id < patterns; id++)
+	    if (outputs[id] != null)
+		out.putBytes(outputs[id]);
+	out.flush();
+    }
+
+
+
+    /**
+       Hands out the consecutive tables of a snapshot.
+     */
+    private static abstract class Region {
+	long position;
+
+	abstract ByteBuffer bytes(long offset, int size) throws IOException;
+
+	abstract long size() throws IOException;
+
+	ByteBuffer bytes(int size) throws IOException {
+	    if (size < 0 || this.position + size > this.size())
+		throw new IOException("truncated snapshot");
+	    ByteBuffer result = this.bytes(this.position, size);
+	    this.position += size;
+	    return result.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	IntBuffer ints(int count) throws IOException {
+	    if (count < 0 || count > Integer.MAX_VALUE / 4)
+		throw new IOException("table too large for one buffer");
+	    return this.bytes(count * 4).asIntBuffer();
+	}
+
+	void finish() throws IOException {
+	    if (this.position != this.size())
+		throw new IOException("trailing bytes after snapshot");
+	}
+    }
+
+
+    /**
+       Maps each table of a snapshot file on its own, so that no
+       single mapping has to reach past 2 GB.
+     */
+    private static class MappedRegion extends Region {
+	private final FileChannel channel;
+	private final long size;
+
+	MappedRegion(FileChannel channel) throws IOException {
+	    this.channel = channel;
+	    this.size = channel.size();
+	}
+
+	ByteBuffer bytes(long offset, int size) throws IOException {
+	    return this.channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+	}
+
+	long size() {
+	    return this.size;
+	}
+    }
+
+
+    /**
+       Hands out, table by table, buffers that a BuffersChannel has
+       filled.
+     */
+    private static class BuffersRegion extends Region {
+	private final ByteBuffer[] buffers;
+	private final long size;
+	private int next;
+
+	BuffersRegion(ByteBuffer[] buffers) {
+	    this.buffers = buffers;
+	    long size = 0;
+	    for (int i = 0; i < buffers.length; i++)
+		size += buffers[i].capacity();
+	    this.size = size;
+	}
+
+	ByteBuffer bytes(long offset, int size) throws IOException {
+	    ByteBuffer result = this.buffers[this.next++].duplicate();
+	    if (result.capacity() != size)
+		throw new IOException("table size mismatch");
+	    ((Buffer) result).clear();
+	    return result;
+	}
+
+	long size() {
+	    return this.size;
+	}
+    }
+
+
+    /**
+       A channel that fills a row of buffers, one after the other.
+     */
+    private static class BuffersChannel implements WritableByteChannel {
+	private final ByteBuffer[] buffers;
+	private int current;
+
+	BuffersChannel(ByteBuffer[] buffers) {
+	    this.buffers = buffers;
+	}
+
+	public int write(ByteBuffer src) throws IOException {
+	    int written = src.remaining();
+	    while (src.hasRemaining()) {
+		if (this.current == this.buffers.length)
+		    throw new IOException("snapshot larger than its tables");
+		ByteBuffer target = this.buffers[this.current];
+		if (! target.hasRemaining()) {
+		    this.current++;
+		    continue;
+		}
+		int n = Math.min(src.remaining(), target.remaining());
+		ByteBuffer piece = src.duplicate();
+		((Buffer) piece).limit(piece.position() + n);
+		target.put(piece);
+		((Buffer) src).position(src.position() + n);
+	    }
+	    return written;
+	}
+
+	public boolean isOpen() {
+	    return true;
+	}
+
+	public void close() {
+	}
+    }
+
+
+    /**
+       Buffers little-endian writes to a channel.
+     */
+    private static class Sink {
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer =
+	    ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+	Sink(WritableByteChannel channel) {
+	    this.channel = channel;
+	}
+
+	void putInt(int value) throws IOException {
+	    if (this.buffer.remaining() < 4)
+		this.flush();
+	    this.buffer.putInt(value);
+	}
+
+	void putInts(int[] values, int count) throws IOException {
+	    for (int i = 0; i < count; i++)
+		this.putInt(values[i]);
+	}
+
+	void putByte(byte value) throws IOException {
+	    if (! this.buffer.hasRemaining())
+		this.flush();
+	    this.buffer.put(value);
+	}
+
+	void putBytes(byte[] values) throws IOException {
+	    for (int i = 0; i < values.length; i++)
+		this.putByte(values[i]);
+	}
+
+	void flush() throws IOException {
+	    ((Buffer) this.buffer).flip();
+	    while (this.buffer.hasRemaining())
+		this.channel.write(this.buffer);
+	    ((Buffer) this.buffer).clear();
+	}
+    }
+}
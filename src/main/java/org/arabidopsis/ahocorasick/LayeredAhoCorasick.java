@@ -0,0 +1,381 @@
+package org.arabidopsis.ahocorasick;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+   <p>A set of keywords that can still change once it is being
+   searched.  A prepared AhoCorasick takes no more keywords, and
+   rebuilding one with millions of them for every change is far too
+   slow, so this class keeps three layers:</p>
+   <ul>
+   <li>a large base automaton, only rebuilt by merge();</li>
+   <li>a small delta automaton with the keywords added, or given a
+   new output, since the last merge;</li>
+   <li>tombstones: one bit for each base keyword that has been
+   removed or replaced since the last merge.</li>
+   </ul>
+
+   <p>A search walks the base and the delta over the input together,
+   in a single pass, and drops the base matches that have a
+   tombstone.  Changes are cheap: the delta is only rebuilt by the
+   first search that follows them.  Once mergeThreshold changes have
+   piled up, a merge is handed to the executor; it builds a new base
+   from all live keywords without holding the lock, then replays on
+   it the changes made in the meantime.  Searches carry on against
+   the old layers until it is done.</p>
+
+   <p>Adding a keyword that is already there replaces its output.
+   All methods are thread safe, and a search only takes the lock if
+   the keywords have changed since the last one.</p>
+
+   <p>
+   Example usage:
+   <code><pre>
+       LayeredAhoCorasick blocklist = new LayeredAhoCorasick();
+       blocklist.add("spam".getBytes(), "spam");
+       blocklist.remove("ham".getBytes());
+       blocklist.search(bytes, 0, bytes.length, handler);
+   </pre></code>
+   </p>
+ */
+public class LayeredAhoCorasick {
+    private static final int DEFAULT_MERGE_THRESHOLD = 1024;
+
+    private final boolean caseInsensitive;
+    private final int mergeThreshold;
+    private final Executor executor;
+    private final Object mergeLock = new Object();
+
+    // The rest is guarded by this.  Keywords are kept folded, wrapped
+    // in ByteBuffers for their content-based equals() and hashCode().
+    private final Map entries;
+    private AhoCorasick base;
+    private Map baseIds;
+    private Map pending;
+    private BitSet dead;
+    private Set journal;
+    private int changes;
+    private boolean mergeScheduled;
+
+    // What searches use, or null once a change has made it stale
+    private volatile Layers layers;
+
+    public LayeredAhoCorasick() {
+	this(false);
+    }
+
+
+    public LayeredAhoCorasick(boolean caseInsensitive) {
+	this(caseInsensitive, DEFAULT_MERGE_THRESHOLD,
+	     ForkJoinPool.commonPool());
+    }
+
+
+    /**
+       Creates an empty keyword set that merges its delta into the
+       base on the given executor after every mergeThreshold
+       changes.  See AhoCorasick(boolean) for caseInsensitive.
+     */
+    public LayeredAhoCorasick(boolean caseInsensitive, int mergeThreshold,
+			      Executor executor) {
+	if (mergeThreshold <= 0)
+	    throw new IllegalArgumentException
+		("mergeThreshold must be positive");
+	this.caseInsensitive = caseInsensitive;
+	this.mergeThreshold = mergeThreshold;
+	this.executor = executor;
+	this.entries = new HashMap();
+	this.base = new AhoCorasick(caseInsensitive);
+	this.base.prepare();
+	this.baseIds = new HashMap();
+	this.pending = new LinkedHashMap();
+	this.dead = new BitSet();
+    }
+
+
+
+    /**
+       Adds a keyword with the given output, or replaces the output
+       of a keyword that is already there.
+     */
+    public synchronized void add(byte[] keyword, Object output) {
+	ByteBuffer key = this.key(keyword);
+	this.entries.put(key, output);
+	this.changed(key);
+    }
+
+
+
+    /**
+       Removes a keyword.  Returns false if it was not there.
+     */
+    public synchronized boolean remove(byte[] keyword) {
+	ByteBuffer key = this.key(keyword);
+	if (! this.entries.containsKey(key))
+	    return false;
+	this.entries.remove(key);
+	this.changed(key);
+	return true;
+    }
+
+
+
+    public synchronized boolean contains(byte[] keyword) {
+	return this.entries.containsKey(this.key(keyword));
+    }
+
+
+
+    /**
+       Returns the number of keywords.
+     */
+    public synchronized int size() {
+	return this.entries.size();
+    }
+
+
+
+    /**
+       Returns the number of keywords in the delta, waiting to be
+       merged into the base.
+     */
+    public synchronized int deltaSize() {
+	return this.pending.size();
+    }
+
+
+
+    /**
+       Rebuilds the base from all live keywords and empties the delta
+       and the tombstones, on the calling thread.  Changes made while
+       it runs are kept, in the new delta.  Merges are run one at a
+       time.
+     */
+    public void merge() {
+	synchronized (this.mergeLock) {
+	    Map snapshot;
+	    synchronized (this) {
+		snapshot = new HashMap(this.entries);
+		this.journal = new HashSet();
+		this.changes = 0;
+	    }
+	    try {
+		AhoCorasick base = new AhoCorasick(this.caseInsensitive);
+		Map baseIds = new HashMap(snapshot.size() * 2);
+		for (Iterator it = snapshot.entrySet().iterator(); it.hasNext(); ) {
+		    Map.Entry entry = (Map.Entry) it.next();
+		    ByteBuffer key = (ByteBuffer) entry.getKey();
+		    int id = base.add(key.array(), entry.getValue());
+		    baseIds.put(key, Integer.valueOf(id));
+		}
+		base.prepare();
+		synchronized (this) {
+		    this.base = base;
+		    this.baseIds = baseIds;
+		    this.pending = new LinkedHashMap();
+		    this.dead = new BitSet();
+		    for (Iterator it = this.journal.iterator(); it.hasNext(); )
+			this.apply((ByteBuffer) it.next());
+		    this.layers = null;
+		}
+	    } finally {
+		synchronized (this) {
+		    this.journal = null;
+		    this.mergeScheduled = false;
+		}
+	    }
+	}
+    }
+
+
+
+    /**
+       Searches bytes[off, off + len) and calls the handler for every
+       live keyword found, in the order their matches end.  Returns
+       false if the handler stopped the search.
+     */
+    public boolean search(byte[] bytes, int off, int len,
+			  OutputHandler handler) {
+	if (off < 0 || len < 0 || off + len > bytes.length)
+	    throw new IndexOutOfBoundsException();
+	Layers layers = this.layers();
+	AhoCorasick base = layers.base;
+	AhoCorasick delta = layers.delta;
+	int s = 0;
+	int d = 0;
+	for (int i = off, end = off + len; i < end; i++) {
+	    int c = bytes[i] & 0xFF;
+	    s = base.transition(s, c);
+	    if (base.isTerminal(s)
+		&& ! report(base, s, layers.dead, i + 1, handler))
+		return false;
+	    if (delta == null)
+		continue;
+	    d = delta.transition(d, c);
+	    if (delta.isTerminal(d)
+		&& ! report(delta, d, null, i + 1, handler))
+		return false;
+	}
+	return true;
+    }
+
+
+
+    /**
+       Returns true if any live keyword occurs in bytes[off, off +
+       len).  Stops at the first match.
+     */
+    public boolean containsAny(byte[] bytes, int off, int len) {
+	if (off < 0 || len < 0 || off + len > bytes.length)
+	    throw new IndexOutOfBoundsException();
+	Layers layers = this.layers();
+	AhoCorasick base = layers.base;
+	AhoCorasick delta = layers.delta;
+	int s = 0;
+	int d = 0;
+	for (int i = off, end = off + len; i < end; i++) {
+	    int c = bytes[i] & 0xFF;
+	    s = base.transition(s, c);
+	    if (base.isTerminal(s) && ! report(base, s, layers.dead, i + 1, null))
+		return true;
+	    if (delta == null)
+		continue;
+	    d = delta.transition(d, c);
+	    if (delta.isTerminal(d))
+		return true;
+	}
+	return false;
+    }
+
+
+
+    /**
+       Reports every keyword ending at state s of the automaton that
+       is not dead.  With no handler, returns false at the first such
+       keyword instead.
+     */
+    private static boolean report(AhoCorasick tree, int s, BitSet dead,
+				  int lastIndex, OutputHandler handler) {
+	for (int t = s; t >= 0; t = tree.outputLink(t)) {
+	    for (int j = tree.outputStart(t); j < tree.outputStart(t + 1); j++) {
+		int id = tree.outputId(j);
+		if (dead != null && dead.get(id))
+		    continue;
+		if (handler == null
+		    || ! handler.onMatch(tree.getOutput(id), lastIndex))
+		    return false;
+	    }
+	}
+	return true;
+    }
+
+
+
+    /**
+       Brings the delta and the tombstones in line with the entry for
+       key, after it has changed.
+     */
+    private void apply(ByteBuffer key) {
+	Integer id = (Integer) this.baseIds.get(key);
+	boolean live = this.entries.containsKey(key);
+	Object output = this.entries.get(key);
+	// A refresh that sends an entry again, with an equal output,
+	// leaves it in the base
+	boolean inBase = live && id != null
+	    && Objects.equals(this.base.getOutput(id.intValue()), output);
+	if (id != null)
+	    this.dead.set(id.intValue(), ! inBase);
+	if (live && ! inBase)
+	    this.pending.put(key, output);
+	else
+	    this.pending.remove(key);
+    }
+
+
+    private void changed(ByteBuffer key) {
+	if (this.journal != null)
+	    this.journal.add(key);
+	this.apply(key);
+	this.layers = null;
+	if (++this.changes < this.mergeThreshold || this.mergeScheduled)
+	    return;
+	this.mergeScheduled = true;
+	try {
+	    this.executor.execute(new Runnable() {
+		    public void run() {
+			merge();
+		    }
+		});
+	} catch (RuntimeException e) {
+	    this.mergeScheduled = false;
+	    throw e;
+	}
+    }
+
+
+
+    /**
+       Returns the layers as they are now, building the delta first
+       if anything has changed since the last search.
+     */
+    private Layers layers() {
+	Layers layers = this.layers;
+	if (layers != null)
+	    return layers;
+	synchronized (this) {
+	    if (this.layers == null) {
+		AhoCorasick delta = null;
+		if (! this.pending.isEmpty()) {
+		    delta = new AhoCorasick(this.caseInsensitive);
+		    for (Iterator it = this.pending.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry entry = (Map.Entry) it.next();
+			delta.add(((ByteBuffer) entry.getKey()).array(),
+				  entry.getValue());
+		    }
+		    delta.prepare();
+		}
+		this.layers = new Layers(this.base, delta,
+					 (BitSet) this.dead.clone());
+	    }
+	    return this.layers;
+	}
+    }
+
+
+    private ByteBuffer key(byte[] keyword) {
+	byte[] folded = keyword.clone();
+	if (this.caseInsensitive)
+	    for (int i = 0; i < folded.length; i++)
+		if (folded[i] >= 'A' && folded[i] <= 'Z')
+		    folded[i] += 'a' - 'A';
+	return ByteBuffer.wrap(folded);
+    }
+
+
+    /**
+       One consistent view of the base, the delta (null if empty) and
+       the tombstones, never changed once built.
+     */
+    private static class Layers {
+	final AhoCorasick base;
+	final AhoCorasick delta;
+	final BitSet dead;
+
+	Layers(AhoCorasick base, AhoCorasick delta, BitSet dead) {
+	    this.base = base;
+	    this.delta = delta;
+	    this.dead = dead;
+	}
+    }
+}
@@ -0,0 +1,181 @@
+package org.arabidopsis.ahocorasick;
+
+
+/**
+   <p>A leftmost search over a haystack that arrives in pieces: the
+   streaming form of AhoCorasick.searchLeftmostLongest() and
+   searchLeftmostFirst().  Matches do not overlap and are reported
+   in order, with absolute indices, to the handler of whichever
+   feed() or finish() call settles them.</p>
+
+   <p>A match is only settled once the search is sure nothing
+   starting at or before it can do better, and after each match the
+   search resumes at its end, so the last maxKeywordLength() + 1
+   bytes are kept in a small ring.  Call finish() at the end of the
+   stream to settle what is left.  A LeftmostSearcher is not thread
+   safe, but any number of them can share one AhoCorasick.</p>
+
+   <p>
+   Example usage:
+   <code><pre>
+       LeftmostSearcher searcher = tree.newLeftmostSearcher(true);
+       while ((n = in.read(buffer)) != -1)
+	   searcher.feed(buffer, 0, n, handler);
+       searcher.finish(handler);
+   </pre></code>
+   </p>
+ */
+public class LeftmostSearcher {
+    private final Automaton tree;
+    private final boolean longest;
+    private final MatchFilter filter;
+    private final byte[] history;
+    private final int mask;
+    private final int room;
+    private int state;
+    private long scanned;
+    private long position;
+    private int match;
+    private long matchStart;
+    private long matchEnd;
+
+    LeftmostSearcher(Automaton tree, boolean longest, MatchFilter filter) {
+	this.tree = tree;
+	this.longest = longest;
+	this.filter = filter;
+	this.history = new byte[Integer.highestOneBit
+				(tree.maxKeywordLength() + 1) << 1];
+	this.mask = this.history.length - 1;
+	// a settled match can send the scan back maxKeywordLength() + 1
+	// bytes, so only the rest of the ring can hold unscanned ones
+	this.room = this.history.length - tree.maxKeywordLength() - 1;
+	this.reset();
+    }
+
+
+    /**
+       Forgets everything fed so far, including any match not yet
+       settled.
+     */
+    public void reset() {
+	this.state = 0;
+	this.scanned = 0;
+	this.position = 0;
+	this.match = -1;
+    }
+
+
+    /**
+       Returns the number of bytes fed so far.
+     */
+    public long position() {
+	return this.position;
+    }
+
+
+    /**
+       Searches bytes[off, off + len) as the continuation of
+       everything fed so far.  Returns false if the handler stopped
+       the search; position() then tells how many bytes were taken,
+       and the rest of the piece can be fed again to resume.
+     */
+    public boolean feed(byte[] bytes, int off, int len,
+			StreamMatchHandler handler) {
+	if (off < 0 || len < 0 || off + len > bytes.length)
+	    throw new IndexOutOfBoundsException();
+	byte[] history = this.history;
+	for (int end = off + len; ; ) {
+	    if (! this.scan(handler))
+		return false;
+	    if (off == end)
+		return true;
+	    int n = Math.min(end - off, this.room);
+	    int at = (int) this.position & this.mask;
+	    int first = Math.min(n, history.length - at);
+	    System.arraycopy(bytes, off, history, at, first);
+	    System.arraycopy(bytes, off + first, history, 0, n - first);
+	    this.position += n;
+	    off += n;
+	}
+    }
+
+
+    /**
+       Searches a single byte as the continuation of everything fed
+       so far.  Returns false if the handler stopped the search;
+       the byte was taken unless the handler was still catching up
+       on earlier ones, which position() tells apart.
+     */
+    public boolean feed(byte b, StreamMatchHandler handler) {
+	if (! this.scan(handler))
+	    return false;
+	this.history[(int) this.position & this.mask] = b;
+	this.position++;
+	return this.scan(handler);
+    }
+
+
+    /**
+       Settles every match left, treating the bytes fed so far as
+       the whole haystack.  Returns false if the handler stopped
+       the search; calling finish() again picks up from there.
+     */
+    public boolean finish(StreamMatchHandler handler) {
+	while (true) {
+	    if (! this.scan(handler))
+		return false;
+	    if (this.match < 0)
+		return true;
+	    if (! this.settle(handler))
+		return false;
+	}
+    }
+
+
+    /**
+       Runs the automaton over the bytes in the ring it has not seen
+       yet, settling matches as it becomes sure of them.
+     */
+    private boolean scan(StreamMatchHandler handler) {
+	Automaton tree = this.tree;
+	while (this.scanned < this.position) {
+	    int b = this.history[(int) this.scanned & this.mask] & 0xFF;
+	    int s = tree.transition(this.state, b);
+	    long lastIndex = ++this.scanned;
+	    if (this.match >= 0
+		&& lastIndex - tree.depth(s) > this.matchStart) {
+		if (! this.settle(handler))
+		    return false;
+		continue;
+	    }
+	    this.state = s;
+	    if (! tree.isTerminal(s))
+		continue;
+	    int id = tree.leftmostPatternId(s, lastIndex, this.filter);
+	    if (id < 0)
+		continue;
+	    long start = lastIndex - tree.getKeywordLength(id);
+	    if (this.match < 0 || start < this.matchStart
+		|| (start == this.matchStart
+		    && (this.longest || id < this.match))) {
+		this.match = id;
+		this.matchStart = start;
+		this.matchEnd = lastIndex;
+	    }
+	}
+	return true;
+    }
+
+
+    /**
+       Reports the best match and goes back to the root just after
+       it.
+     */
+    private boolean settle(StreamMatchHandler handler) {
+	int id = this.match;
+	this.match = -1;
+	this.state = 0;
+	this.scanned = this.matchEnd;
+	return handler.onMatch(id, this.matchEnd);
+    }
+}
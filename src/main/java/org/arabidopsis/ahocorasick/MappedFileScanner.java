@@ -0,0 +1,179 @@
+package org.arabidopsis.ahocorasick;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+   <p>Searches a file with one prepared AhoCorasick on many threads.
+   The file is cut into chunks, each of which is memory-mapped and
+   searched as its own fork/join task.  A chunk is searched starting
+   maxKeywordLength() - 1 bytes before its first byte, so that a
+   keyword straddling the boundary is still found, but it only keeps
+   the matches that end inside it: every match is therefore found by
+   exactly one chunk, and no de-duplication pass is needed.</p>
+
+   <p>Matches are handed to the caller's handler on the calling
+   thread, in file order, chunk by chunk as each one is done.  Only
+   twice the pool's parallelism of chunks are searched ahead of the
+   one being handed over, so the matches held in memory at any time
+   are those of that many chunks, 12 bytes each in primitive arrays,
+   however large the file is.</p>
+
+   <p>
+   Example usage:
+   <code><pre>
+       new MappedFileScanner(tree).scan(Paths.get("corpus"), handler);
+   </pre></code>
+   </p>
+ */
+public class MappedFileScanner {
+    private static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final Automaton tree;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public MappedFileScanner(Automaton tree) {
+	this(tree, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public MappedFileScanner(Automaton tree, ForkJoinPool pool,
+			     int chunkSize) {
+	if (chunkSize <= 0)
+	    throw new IllegalArgumentException("chunkSize must be positive");
+	this.tree = tree;
+	this.pool = pool;
+	this.chunkSize = chunkSize;
+    }
+
+
+    /**
+       Searches the whole file and reports every match, in order of
+       lastIndex, to the handler.  Indices are offsets from the start
+       of the file.  Returns false if the handler stopped early.
+     */
+    public boolean scan(Path file, StreamMatchHandler handler)
+	throws IOException {
+	if (! this.tree.isPrepared())
+	    throw new IllegalStateException
+		("can't start search until prepare()");
+	try (FileChannel channel = FileChannel.open
+	     (file, StandardOpenOption.READ)) {
+	    long size = channel.size();
+	    int chunks = (int) ((size + this.chunkSize - 1) / this.chunkSize);
+	    int window = 2 * this.pool.getParallelism();
+	    ChunkTask[] tasks = new ChunkTask[chunks];
+	    int submitted = 0;
+	    try {
+		for (int c = 0; c < chunks; c++) {
+		    for (; submitted < chunks && submitted <= c + window; submitted++) {
+			tasks[submitted] = new ChunkTask(channel, size, submitted);
+			this.pool.execute(tasks[submitted]);
+		    }
+		    ChunkTask task = tasks[c];
+		    tasks[c] = null;
+		    task.join();
+		    if (task.failure != null)
+			throw task.failure;
+		    if (! task.matches.replay(handler))
+			return false;
+		}
+		return true;
+	    } finally {
+		// Chunks still in flight after a failure or an early stop
+		for (int c = 0; c < submitted; c++) {
+		    if (tasks[c] != null) {
+			tasks[c].cancel(false);
+			tasks[c].quietlyJoin();
+		    }
+		}
+	    }
+	}
+    }
+
+
+    /**
+       Maps and searches one chunk.
+     */
+    private class ChunkTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int chunk;
+	Matches matches;
+	IOException failure;
+
+	ChunkTask(FileChannel channel, long size, int chunk) {
+	    this.channel = channel;
+	    this.size = size;
+	    this.chunk = chunk;
+	}
+
+	protected void compute() {
+	    long start = (long) chunk * chunkSize;
+	    long end = Math.min(size, start + chunkSize);
+	    long mapStart = Math.max(0, start - Math.max(0, tree.maxKeywordLength() - 1));
+	    try {
+		MappedByteBuffer buffer = channel.map
+		    (FileChannel.MapMode.READ_ONLY, mapStart, end - mapStart);
+		matches = search(buffer, mapStart, start);
+	    } catch (IOException e) {
+		failure = e;
+	    }
+	}
+    }
+
+
+    /**
+       Searches a mapped region that starts at file offset base from
+       the root, keeping only the matches that end after keepAfter.
+     */
+    private Matches search(MappedByteBuffer buffer, long base,
+			   long keepAfter) {
+	Automaton tree = this.tree;
+	Matches matches = new Matches();
+	int s = 0;
+	for (int i = 0, limit = buffer.limit(); i < limit; i++) {
+	    s = tree.transition(s, buffer.get(i) & 0xFF);
+	    if (tree.isTerminal(s) && base + i + 1 > keepAfter)
+		tree.report(s, base + i + 1, matches);
+	}
+	return matches;
+    }
+
+
+    /**
+       Growable list of (patternId, lastIndex) pairs.
+     */
+    private static class Matches implements StreamMatchHandler {
+	private int[] ids = new int[16];
+	private long[] lastIndices = new long[16];
+	private int size;
+
+	public boolean onMatch(int id, long lastIndex) {
+	    if (size == ids.length) {
+		ids = Arrays.copyOf(ids, size * 2);
+		lastIndices = Arrays.copyOf(lastIndices, size * 2);
+	    }
+	    ids[size] = id;
+	    lastIndices[size] = lastIndex;
+	    size++;
+	    return true;
+	}
+
+	boolean replay(StreamMatchHandler handler) {
+	    for (int i = 0; i < size; i++)
+		if (! handler.onMatch(ids[i], lastIndices[i]))
+		    return false;
+	    return true;
+	}
+    }
+}
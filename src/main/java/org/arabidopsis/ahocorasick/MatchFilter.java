@@ -0,0 +1,15 @@
+package org.arabidopsis.ahocorasick;
+
+
+/**
+   Decides which matches a LeftmostSearcher may choose from, for
+   callers whose notion of a match is narrower than the automaton's
+   (whole words only, say).
+ */
+public interface MatchFilter {
+    /**
+       Returns true if the keyword patternId, ending at lastIndex
+       (counted from the start of the stream), counts as a match.
+     */
+    boolean accept(int patternId, long lastIndex);
+}
@@ -0,0 +1,18 @@
+package org.arabidopsis.ahocorasick;
+
+
+/**
+   Receives matches from AhoCorasick.search(byte[], int, int,
+   MatchHandler) as they are found, without any per-match
+   allocation.
+ */
+public interface MatchHandler {
+    /**
+       Called once for every keyword that ends at lastIndex (one
+       byte after the last matching character).  patternId is the
+       value add() returned for the keyword; AhoCorasick.getOutput()
+       maps it back to the output object.  Returning false stops the
+       search.
+     */
+    boolean onMatch(int patternId, int lastIndex);
+}
@@ -0,0 +1,16 @@
+package org.arabidopsis.ahocorasick;
+
+
+/**
+   Receives matches by output object rather than by pattern id, from
+   searches over more than one automaton, where pattern ids are not
+   unique.  See LayeredAhoCorasick.
+ */
+public interface OutputHandler {
+    /**
+       Called once for every keyword that ends at lastIndex (one
+       byte after the last matching character), with the output the
+       keyword was added with.  Returning false stops the search.
+     */
+    boolean onMatch(Object output, int lastIndex);
+}
@@ -0,0 +1,273 @@
+package org.arabidopsis.ahocorasick;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+   <p>A skip loop for the stretches of input where the automaton sits
+   at its root.  Every keyword has one of a few rare bytes among its
+   first few bytes, no more than maxOffset() in; so when the search
+   is at the root at position p, and the next of those bytes at or
+   after p is at c, no keyword can start before c - maxOffset(), and
+   the search may jump there and carry on from the root.  Results
+   are exactly the same as without the prefilter.</p>
+
+   <p>The scan for those bytes reads the input eight bytes at a time
+   and tests all eight at once with plain long arithmetic (SWAR).
+   A letter and its upper case, as chosen for automata that ignore
+   case, make one needle: they are the only two bytes that give the
+   lower case letter once bit 0x20 is set.</p>
+ */
+final class Prefilter {
+    private static final int MAX_NEEDLES = 3;
+    private static final int MAX_OFFSET = 2;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    // Roughly how common each byte value is in text and in typical
+    // binary data, most common first.  Bytes not listed are all
+    // taken to be rare.  An upper case letter ranks just below its
+    // lower case, so that an automaton that ignores case picks the
+    // same letter in either case, and the two make one needle.
+    private static final String COMMON =
+	" etaoinsrhldcumfpgwybvkxjqz\n\r\t0123456789.,-_/:;='\"()"
+	+ "<>&?!@#%+*[]{}|\\$^~`\u0000\u00ff";
+
+    private static final int[] RANK = new int[256];
+    static {
+	for (int i = 0; i < COMMON.length(); i++) {
+	    int b = COMMON.charAt(i);
+	    RANK[b] = 2 * (COMMON.length() - i);
+	    if (b >= 'a' && b <= 'z')
+		RANK[b ^ 0x20] = RANK[b] - 1;
+	}
+    }
+
+    private final boolean[] table;
+    private final long[] masks;
+    private final long[] needles;
+    private final int maxOffset;
+
+    private Prefilter(boolean[] table, long[] masks, long[] needles,
+		      int maxOffset) {
+	this.table = table;
+	this.masks = masks;
+	this.needles = needles;
+	this.maxOffset = maxOffset;
+    }
+
+
+
+    /**
+       Builds a prefilter for a prepared automaton from the first
+       MAX_OFFSET + 1 bytes of its keywords, which it reads off the
+       states of that depth.  Returns null if there is no small set
+       of bytes that every keyword starts with one of: for instance if
+       there is an empty keyword, or keywords starting with too many
+       different bytes.
+     */
+    static Prefilter build(Automaton tree) {
+	if (tree.outputStart(1) > tree.outputStart(0))
+	    return null;
+	int[] path = new int[MAX_OFFSET + 1];
+	boolean[] chosen = new boolean[256];
+	int[] maxOffset = {0};
+	if (! choose(tree, 0, 0, path, chosen, maxOffset))
+	    return null;
+
+	boolean[] table = new boolean[256];
+	long[] masks = new long[MAX_NEEDLES];
+	long[] needles = new long[MAX_NEEDLES];
+	int n = 0;
+	for (int b = 0; b < 256; b++) {
+	    if (! chosen[b])
+		continue;
+	    table[b] = true;
+	    boolean letter = (b | 0x20) >= 'a' && (b | 0x20) <= 'z';
+	    if (letter && b < 'a' && chosen[b | 0x20])
+		continue;
+	    boolean pair = letter && chosen[b ^ 0x20];
+	    if (n == MAX_NEEDLES)
+		return null;
+	    masks[n] = pair ? 0x20 * ONES : 0;
+	    needles[n] = (pair ? (b | 0x20) : b) * ONES;
+	    n++;
+	}
+	if (n < MAX_NEEDLES) {
+	    // Pad with repeats of the first needle, so that find() can
+	    // always test three.
+	    for (int i = n; i < MAX_NEEDLES; i++) {
+		masks[i] = masks[0];
+		needles[i] = needles[0];
+	    }
+	}
+	return new Prefilter(table, masks, needles, maxOffset[0]);
+    }
+
+
+    /**
+       Walks the paths of the trie from state s, at the given depth,
+       down to depth MAX_OFFSET or the end of a keyword, and makes
+       sure each gets a chosen byte, choosing the rarest byte on the
+       path when it has none yet.  Returns false once too many
+       needles would be needed.
+     */
+    private static boolean choose(Automaton tree, int s, int depth,
+				  int[] path, boolean[] chosen,
+				  int[] maxOffset) {
+	boolean ends = tree.outputStart(s + 1) > tree.outputStart(s);
+	if (depth > 0 && (depth == path.length || ends)) {
+	    int offset = -1;
+	    int rarest = 0;
+	    for (int i = 0; i < depth; i++) {
+		if (offset < 0 && chosen[path[i]])
+		    offset = i;
+		if (RANK[path[i]] < RANK[path[rarest]])
+		    rarest = i;
+	    }
+	    if (offset < 0) {
+		chosen[path[rarest]] = true;
+		offset = rarest;
+		if (needles(chosen) > MAX_NEEDLES)
+		    return false;
+	    }
+	    maxOffset[0] = Math.max(maxOffset[0], offset);
+	    if (depth == path.length)
+		return true;
+	}
+	for (int c = 0; c < 256; c++) {
+	    int t = tree.transition(s, c);
+	    if (tree.depth(t) != depth + 1)
+		continue;
+	    path[depth] = c;
+	    if (! choose(tree, t, depth + 1, path, chosen, maxOffset))
+		return false;
+	}
+	return true;
+    }
+
+
+    private static int needles(boolean[] chosen) {
+	int n = 0;
+	for (int b = 0; b < 256; b++) {
+	    boolean letter = (b | 0x20) >= 'a' && (b | 0x20) <= 'z';
+	    if (chosen[b] && ! (letter && b < 'a' && chosen[b | 0x20]))
+		n++;
+	}
+	return n;
+    }
+
+
+    /**
+       Returns the furthest a keyword's first chosen byte can be from
+       its start.
+     */
+    int maxOffset() {
+	return this.maxOffset;
+    }
+
+
+    /**
+       Returns where a search that is at the root at position from
+       can resume: the position of the next chosen byte, less
+       maxOffset() but not before from, or end if there is none.
+     */
+    int skip(byte[] bytes, int from, int end) {
+	int c = this.find(bytes, from, end);
+	return (c == end) ? end : Math.max(from, c - this.maxOffset);
+    }
+
+
+    int skip(ByteBuffer buffer, int from, int end) {
+	int c = this.find(buffer, from, end);
+	return (c == end) ? end : Math.max(from, c - this.maxOffset);
+    }
+
+
+    /**
+       Like skip(), for a piece of a longer input that goes on after
+       end: there a keyword may start in the last maxOffset() bytes
+       and have its chosen byte in the next piece, so the search
+       resumes no later than that.
+     */
+    int skipPiece(byte[] bytes, int from, int end) {
+	int c = this.find(bytes, from, end);
+	return Math.max(from, c - this.maxOffset);
+    }
+
+
+    int skipPiece(ByteBuffer buffer, int from, int end) {
+	int c = this.find(buffer, from, end);
+	return Math.max(from, c - this.maxOffset);
+    }
+
+
+    /**
+       Returns the position of the first chosen byte in bytes[from,
+       end), or end.  Allocates nothing.
+     */
+    int find(byte[] bytes, int from, int end) {
+	int i = from;
+	for (; i + 8 <= end; i += 8) {
+	    long found = this.test(littleEndian(bytes, i));
+	    if (found != 0)
+		return i + (Long.numberOfTrailingZeros(found) >>> 3);
+	}
+	for (; i < end; i++)
+	    if (this.table[bytes[i] & 0xFF])
+		return i;
+	return end;
+    }
+
+
+    /**
+       Like find(byte[], int, int), with absolute reads that leave
+       the buffer's position, limit and byte order alone.
+     */
+    int find(ByteBuffer buffer, int from, int end) {
+	boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+	int i = from;
+	for (; i + 8 <= end; i += 8) {
+	    long v = buffer.getLong(i);
+	    long found = this.test(bigEndian ? Long.reverseBytes(v) : v);
+	    if (found != 0)
+		return i + (Long.numberOfTrailingZeros(found) >>> 3);
+	}
+	for (; i < end; i++)
+	    if (this.table[buffer.get(i) & 0xFF])
+		return i;
+	return end;
+    }
+
+
+    private static long littleEndian(byte[] bytes, int i) {
+	return (bytes[i] & 0xFFL)
+	    | (bytes[i + 1] & 0xFFL) << 8
+	    | (bytes[i + 2] & 0xFFL) << 16
+	    | (bytes[i + 3] & 0xFFL) << 24
+	    | (bytes[i + 4] & 0xFFL) << 32
+	    | (bytes[i + 5] & 0xFFL) << 40
+	    | (bytes[i + 6] & 0xFFL) << 48
+	    | (bytes[i + 7] & 0xFFL) << 56;
+    }
+
+
+    /**
+       Tests the eight bytes of a little-endian word at once, and
+       returns 0x80 in the byte of each one that may be chosen.  A
+       byte matches a needle if it is zero once the needle is xored
+       in, and the lowest such byte of a word is found exactly by the
+       classic (x - 0x01...) & ~x & 0x80... test, which can only
+       misfire on the bytes above it.
+     */
+    private long test(long v) {
+	long x0 = (v | this.masks[0]) ^ this.needles[0];
+	long x1 = (v | this.masks[1]) ^ this.needles[1];
+	long x2 = (v | this.masks[2]) ^ this.needles[2];
+	return (((x0 - ONES) & ~x0)
+		| ((x1 - ONES) & ~x1)
+		| ((x2 - ONES) & ~x2)) & HIGHS;
+    }
+}
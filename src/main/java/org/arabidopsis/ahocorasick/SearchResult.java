@@ -11,11 +11,13 @@ import java.util.Set;
    search, though this is not exposed for public use.)</p>
  */
 public class SearchResult {
+    AhoCorasick tree;
     State lastMatchedState;
     byte[] bytes;
     int lastIndex;
 
-    SearchResult(State s, byte[] bs, int i) {
+    SearchResult(AhoCorasick tree, State s, byte[] bs, int i) {
+	this.tree = tree;
 	this.lastMatchedState = s;
 	this.bytes = bs;
 	this.lastIndex = i;
@@ -26,7 +28,7 @@ public class SearchResult {
        Returns a list of the outputs of this match.
      */
     public Set getOutputs() {
-	return lastMatchedState.getOutputs();
+	return tree.getOutputs(lastMatchedState);
     }
 
 
@@ -0,0 +1,371 @@
+package org.arabidopsis.ahocorasick;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+   <p>Builds an automaton out of keywords that arrive in sorted
+   order, such as the lines of a sorted file, without making any
+   State objects.  Each keyword shares a prefix with the one before
+   it and the rest of its path is new, so only the path of the last
+   keyword is still open and everything off it is final: the trie
+   goes straight into a few growing arrays, about 9 bytes per node,
+   where AhoCorasick.add() makes a State and an edge list (with 256
+   slots in the first levels) per node.  build() then numbers the
+   states breadth-first, computes the fail links over the arrays and
+   lays the transitions out as a double array, as compile() would;
+   the result is a FrozenAhoCorasick.</p>
+
+   <p>Keywords must come in increasing order of their bytes, taken as
+   unsigned and after case folding if any.  A keyword may repeat the
+   one before it; as with AhoCorasick.add(), it gets a pattern id of
+   its own.</p>
+
+   <p>
+   Example usage:
+   <code><pre>
+       SortedBuilder builder = new SortedBuilder();
+       while ((line = reader.readLine()) != null)
+	   builder.add(line.getBytes(), line);
+       builder.save(Paths.get("words.acsn"));
+   </pre></code>
+   </p>
+ */
+public class SortedBuilder {
+    private final byte[] fold;
+    private final boolean[] keywordBytes = new boolean[256];
+
+    // The trie, by node in the order the nodes were made
+    private int[] firstChild;
+    private int[] nextSibling;
+    private byte[] labels;
+    private int nodeCount;
+
+    // The nodes along the last keyword added, the root first
+    private int[] path = new int[16];
+    private int pathLength;
+
+    // By pattern id
+    private int[] patternNodes = new int[16];
+    private int[] keywordLengths = new int[16];
+    private List outputs = new ArrayList();
+    private int maxKeywordLength;
+
+    private Tables tables;
+
+    public SortedBuilder() {
+	this(false);
+    }
+
+
+    /**
+       See AhoCorasick(boolean) for caseInsensitive.
+     */
+    public SortedBuilder(boolean caseInsensitive) {
+	this.fold = AhoCorasick.foldTable(caseInsensitive);
+	this.firstChild = new int[1024];
+	this.nextSibling = new int[1024];
+	this.labels = new byte[1024];
+	this.path[0] = this.newNode((byte) 0);
+    }
+
+
+
+    /**
+       Adds a keyword with the given output, and returns its pattern
+       id.  Ids are handed out as by AhoCorasick.add().
+     */
+    public int add(byte[] keyword, Object output) {
+	if (this.tables != null)
+	    throw new IllegalStateException
+		("can't add keywords after build() or save()");
+	int[] path = this.path;
+	int common = 0;
+	int n = Math.min(this.pathLength, keyword.length);
+	int label = 0;
+	int folded = 0;
+	for (; common < n; common++) {
+	    label = this.labels[path[common + 1]] & 0xFF;
+	    folded = this.fold[keyword[common] & 0xFF] & 0xFF;
+	    if (label != folded)
+		break;
+	}
+	if (common < n ? label > folded : this.pathLength > keyword.length)
+	    throw new IllegalArgumentException
+		("keywords must be added in sorted order");
+
+	if (keyword.length >= path.length)
+	    this.path = path = Arrays.copyOf
+		(path, Math.max(path.length * 2, keyword.length + 1));
+	for (int d = common; d < keyword.length; d++) {
+	    byte b = this.fold[keyword[d] & 0xFF];
+	    int child = this.newNode(b);
+	    // The parent's newest child, if any, is on the last path.
+	    if (d == common && this.pathLength > common)
+		this.nextSibling[path[d + 1]] = child;
+	    else
+		this.firstChild[path[d]] = child;
+	    path[d + 1] = child;
+	    this.keywordBytes[b & 0xFF] = true;
+	}
+	this.pathLength = keyword.length;
+
+	int id = this.outputs.size();
+	if (id == this.patternNodes.length) {
+	    this.patternNodes = Arrays.copyOf(this.patternNodes, id * 2);
+	    this.keywordLengths = Arrays.copyOf(this.keywordLengths, id * 2);
+	}
+	this.patternNodes[id] = path[keyword.length];
+	this.keywordLengths[id] = keyword.length;
+	this.outputs.add(output);
+	this.maxKeywordLength = Math.max(this.maxKeywordLength, keyword.length);
+	return id;
+    }
+
+
+
+    /**
+       Finishes the automaton and copies it into direct ByteBuffers,
+       as AhoCorasick.freeze() does.  No keywords can be added after
+       this.
+     */
+    public FrozenAhoCorasick build() {
+	Tables tables = this.finish();
+	return FrozenAhoCorasick.freeze(tables, tables.classes, tables.table);
+    }
+
+
+
+    /**
+       Finishes the automaton and writes it to a snapshot, as
+       AhoCorasick.save() does.  Outputs must be Strings or null.  No
+       keywords can be added after this.
+     */
+    public void save(Path file) throws IOException {
+	Tables tables = this.finish();
+	try (FileChannel channel = FileChannel.open
+	     (file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+	      StandardOpenOption.TRUNCATE_EXISTING)) {
+	    FrozenAhoCorasick.write(tables, tables.classes, tables.table,
+				    true, channel);
+	}
+    }
+
+
+
+    private int newNode(byte label) {
+	int n = this.nodeCount;
+	if (n == this.labels.length) {
+	    // Grow by half, rather than double, to keep the peak down.
+	    int length = n + (n >> 1);
+	    this.firstChild = Arrays.copyOf(this.firstChild, length);
+	    this.nextSibling = Arrays.copyOf(this.nextSibling, length);
+	    this.labels = Arrays.copyOf(this.labels, length);
+	}
+	this.firstChild[n] = -1;
+	this.nextSibling[n] = -1;
+	this.labels[n] = label;
+	return this.nodeCount++;
+    }
+
+
+
+    /**
+       Turns the trie into the tables of a prepared automaton, once,
+       dropping the build arrays as soon as they are no longer
+       needed.
+     */
+    private Tables finish() {
+	if (this.tables != null)
+	    return this.tables;
+	int n = this.nodeCount;
+
+	// Breadth-first order, in which the children of every state
+	// are consecutive and sorted by label.
+	int[] order = new int[n];
+	int[] childStarts = new int[n + 1];
+	int tail = 1;
+	for (int head = 0; head < n; head++) {
+	    childStarts[head] = tail;
+	    for (int c = this.firstChild[order[head]]; c >= 0;
+		 c = this.nextSibling[c])
+		order[tail++] = c;
+	}
+	childStarts[n] = n;
+	this.firstChild = null;
+	this.nextSibling = null;
+	byte[] labels = new byte[n];
+	for (int s = 0; s < n; s++)
+	    labels[s] = this.labels[order[s]];
+	this.labels = null;
+	int[] ids = new int[n];
+	for (int s = 0; s < n; s++)
+	    ids[order[s]] = s;
+	order = null;
+
+	int patterns = this.outputs.size();
+	int[] outputStarts = new int[n + 1];
+	for (int id = 0; id < patterns; id++)
+	    outputStarts[ids[this.patternNodes[id]] + 1]++;
+	for (int s = 0; s < n; s++)
+	    outputStarts[s + 1] += outputStarts[s];
+	int[] outputIds = new int[patterns];
+	int[] next = Arrays.copyOf(outputStarts, n);
+	for (int id = 0; id < patterns; id++)
+	    outputIds[next[ids[this.patternNodes[id]]]++] = id;
+	next = null;
+	ids = null;
+	this.patternNodes = null;
+
+	// Fail and output links, as in AhoCorasick.prepare(): the
+	// children of the root fail to it and have no output link.
+	int[] depths = new int[n];
+	int[] fail = new int[n];
+	int[] outputLinks = new int[n];
+	outputLinks[0] = -1;
+	for (int s = 0; s < n; s++) {
+	    for (int c = childStarts[s]; c < childStarts[s + 1]; c++) {
+		depths[c] = depths[s] + 1;
+		outputLinks[c] = -1;
+		if (s == 0)
+		    continue;
+		int f = fail[s];
+		int g;
+		while ((g = child(childStarts, labels, f, labels[c])) < 0
+		       && f != 0)
+		    f = fail[f];
+		int t = (g < 0) ? 0 : g;
+		fail[c] = t;
+		outputLinks[c] = (outputStarts[t + 1] > outputStarts[t])
+		    ? t : outputLinks[t];
+	    }
+	}
+	boolean[] terminal = new boolean[n];
+	for (int s = 0; s < n; s++)
+	    terminal[s] = outputStarts[s + 1] > outputStarts[s]
+		|| outputLinks[s] >= 0;
+
+	byte[] classes = AhoCorasick.byteClasses(this.keywordBytes, this.fold);
+	int width = 0;
+	for (int b = 0; b < 256; b++)
+	    width = Math.max(width, (classes[b] & 0xFF) + 1);
+	DoubleArray table = new DoubleArray(childStarts, labels, fail,
+					    classes, width);
+
+	this.path = null;
+	this.tables = new Tables(classes, table, depths, terminal, outputLinks,
+				 outputStarts, outputIds, this.keywordLengths,
+				 this.outputs, this.maxKeywordLength);
+	return this.tables;
+    }
+
+
+    /**
+       Returns the child of state s on the given label, or -1.
+     */
+    private static int child(int[] childStarts, byte[] labels, int s,
+			     byte label) {
+	int low = childStarts[s];
+	int high = childStarts[s + 1] - 1;
+	int key = label & 0xFF;
+	while (low <= high) {
+	    int middle = (low + high) >>> 1;
+	    int b = labels[middle] & 0xFF;
+	    if (b < key)
+		low = middle + 1;
+	    else if (b > key)
+		high = middle - 1;
+	    else
+		return middle;
+	}
+	return -1;
+    }
+
+
+    /**
+       The finished automaton, in heap arrays, for FrozenAhoCorasick
+       to copy out.
+     */
+    private static class Tables extends Automaton {
+	final byte[] classes;
+	final DoubleArray table;
+	private final int[] depths;
+	private final boolean[] terminal;
+	private final int[] outputLinks;
+	private final int[] outputStarts;
+	private final int[] outputIds;
+	private final int[] keywordLengths;
+	private final List outputs;
+	private final int maxKeywordLength;
+
+	Tables(byte[] classes, DoubleArray table, int[] depths,
+	       boolean[] terminal, int[] outputLinks, int[] outputStarts,
+	       int[] outputIds, int[] keywordLengths, List outputs,
+	       int maxKeywordLength) {
+	    this.classes = classes;
+	    this.table = table;
+	    this.depths = depths;
+	    this.terminal = terminal;
+	    this.outputLinks = outputLinks;
+	    this.outputStarts = outputStarts;
+	    this.outputIds = outputIds;
+	    this.keywordLengths = keywordLengths;
+	    this.outputs = outputs;
+	    this.maxKeywordLength = maxKeywordLength;
+	}
+
+	public Object getOutput(int patternId) {
+	    return this.outputs.get(patternId);
+	}
+
+	public int getKeywordLength(int patternId) {
+	    return this.keywordLengths[patternId];
+	}
+
+	public int patternCount() {
+	    return this.outputs.size();
+	}
+
+	public int maxKeywordLength() {
+	    return this.maxKeywordLength;
+	}
+
+	public int stateCount() {
+	    return this.depths.length;
+	}
+
+	boolean isPrepared() {
+	    return true;
+	}
+
+	int transition(int s, int c) {
+	    return this.table.transition(s, this.classes[c] & 0xFF);
+	}
+
+	boolean isTerminal(int s) {
+	    return this.terminal[s];
+	}
+
+	int depth(int s) {
+	    return this.depths[s];
+	}
+
+	int outputLink(int s) {
+	    return this.outputLinks[s];
+	}
+
+	int outputStart(int s) {
+	    return this.outputStarts[s];
+	}
+
+	int outputId(int j) {
+	    return this.outputIds[j];
+	}
+    }
+}
@@ -0,0 +1,73 @@
+package org.arabidopsis.ahocorasick;
+
+import java.util.Arrays;
+
+
+/**
+   An EdgeList for states with a few edges: the bytes sorted (as
+   unsigned values) in one small array and the targets in another.
+   Lookups scan the bytes when there are only a handful, and binary
+   search them otherwise.  Only made by State.compactEdges(), once
+   the trie is complete.
+ */
+
+class SortedEdgeList implements EdgeList {
+    // Up to this many edges, a scan beats a binary search.
+    private static final int LINEAR_SEARCH_LIMIT = 8;
+
+    private final byte[] keys;
+    private final State[] states;
+
+    /**
+       Copies the edges of another list.
+     */
+    public SortedEdgeList(EdgeList list) {
+	byte[] keys = list.keys();
+	int[] sorted = new int[keys.length];
+	for (int i = 0; i < keys.length; i++)
+	    sorted[i] = keys[i] & 0xFF;
+	Arrays.sort(sorted);
+	this.keys = new byte[keys.length];
+	this.states = new State[keys.length];
+	for (int i = 0; i < keys.length; i++) {
+	    this.keys[i] = (byte) sorted[i];
+	    this.states[i] = list.get((byte) sorted[i]);
+	}
+    }
+
+
+    public State get(byte b) {
+	byte[] keys = this.keys;
+	if (keys.length <= LINEAR_SEARCH_LIMIT) {
+	    for (int i = 0; i < keys.length; i++)
+		if (keys[i] == b)
+		    return this.states[i];
+	    return null;
+	}
+	int key = b & 0xFF;
+	int low = 0;
+	int high = keys.length - 1;
+	while (low <= high) {
+	    int middle = (low + high) >>> 1;
+	    int k = keys[middle] & 0xFF;
+	    if (k < key)
+		low = middle + 1;
+	    else if (k > key)
+		high = middle - 1;
+	    else
+		return this.states[middle];
+	}
+	return null;
+    }
+
+
+    public void put(byte b, State s) {
+	throw new UnsupportedOperationException
+	    ("can't add edges once the trie is compacted");
+    }
+
+
+    public byte[] keys() {
+	return this.keys.clone();
+    }
+}
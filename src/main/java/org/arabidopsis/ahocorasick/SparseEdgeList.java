@@ -14,6 +14,17 @@ class SparseEdgeList implements EdgeList {
     }
 
 
+    /**
+       Returns the number of edges, counting no further than limit.
+     */
+    public int size(int limit) {
+	int size = 0;
+	for (Cons c = head; c != null && size < limit; c = c.next)
+	    size++;
+	return size;
+    }
+
+
     public State get(byte b) {
 	Cons c = head;
 	while (c != null) {
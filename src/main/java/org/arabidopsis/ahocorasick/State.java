@@ -1,7 +1,6 @@
 package org.arabidopsis.ahocorasick;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 
 /**
@@ -12,45 +11,65 @@ import java.util.Set;
 class State {
 
 
-    // Arbitrarily chosen constant.  If this state ends up getting
-    // deeper than THRESHOLD_TO_USE_SPARSE, then we switch over to a
-    // sparse edge representation.  I did a few tests, and there's a
-    // local minima here.  We may want to choose a more sophisticated
-    // strategy.
-    private static final int THRESHOLD_TO_USE_SPARSE = 3;
+    // While the trie is built, states other than the root keep
+    // their edges in a sparse list, which turns dense once it has
+    // DENSE_FAN_OUT edges, so that neither a long list nor a mostly
+    // empty array is ever walked or kept around.  compactEdges()
+    // picks the final layout by fan-out in the same way.
+    private static final int DENSE_FAN_OUT = 16;
+
+    private static final int[] NO_PATTERNS = new int[0];
+    private static final byte[] NO_KEYS = new byte[0];
 
     private int depth;
+    private int id;
     private EdgeList edgeList;
+    // Once compacted, a state with a single edge keeps it here
+    // instead of in an edge list, and one with none keeps neither.
+    private byte edgeKey;
+    private State edgeTarget;
     private State fail;
-    private Set outputs;
+    private State outputLink;
+    private int[] patternIds;
 
     public State(int depth) {
 	this.depth = depth;
-	if (depth > THRESHOLD_TO_USE_SPARSE)
+	if (depth > 0)
 	    this.edgeList = new SparseEdgeList();
 	else
 	    this.edgeList = new DenseEdgeList();
 	this.fail = null;
-	this.outputs = new HashSet();
+	this.patternIds = NO_PATTERNS;
     }
 
 
     public State extend(byte b) {
-	if (this.edgeList.get(b) != null)
-	    return this.edgeList.get(b);
+	State existing = this.get(b);
+	if (existing != null)
+	    return existing;
 	State nextState = new State(this.depth + 1);
-	this.edgeList.put(b, nextState);
+	this.put(b, nextState);
+	if (this.edgeList instanceof SparseEdgeList
+	    && ((SparseEdgeList) this.edgeList).size(DENSE_FAN_OUT) == DENSE_FAN_OUT)
+	    this.edgeList = DenseEdgeList.fromSparse
+		((SparseEdgeList) this.edgeList);
 	return nextState;
     }
 
 
     public State extendAll(byte[] bytes) {
+	return this.extendAll(bytes, 0);
+    }
+
+
+    /**
+       Like extendAll(byte[]), for the bytes from index from on.
+     */
+    public State extendAll(byte[] bytes, int from) {
 	State state = this;
-	for (int i = 0; i < bytes.length; i++) {
-	    if (state.edgeList.get(bytes[i]) != null)
-		state = state.edgeList.get(bytes[i]);
-	    else
-		state = state.extend(bytes[i]);
+	for (int i = from; i < bytes.length; i++) {
+	    State next = state.get(bytes[i]);
+	    state = (next != null) ? next : state.extend(bytes[i]);
 	}
 	return state;
     }
@@ -62,25 +81,79 @@ class State {
        those introduced by AhoCorasick.prepare().
      */
     public int size() {
-	byte[] keys = edgeList.keys();
+	byte[] keys = this.keys();
 	int result = 1;
 	for (int i = 0; i < keys.length; i++)
-	    result += edgeList.get(keys[i]).size();
+	    result += this.get(keys[i]).size();
 	return result;
     }
 
 
+    /**
+       The search loop calls this for every byte, so the inline edge
+       and dense lists are tested for here rather than through the
+       interface: the one call left only ever sees sorted lists (or,
+       while the trie is built, sparse ones), and stays cheap.
+     */
     public State get(byte b) {
-	return this.edgeList.get(b);
+	EdgeList edgeList = this.edgeList;
+	if (edgeList instanceof DenseEdgeList)
+	    return ((DenseEdgeList) edgeList).get(b);
+	if (edgeList == null)
+	    return (b == this.edgeKey) ? this.edgeTarget : null;
+	return edgeList.get(b);
     }
 
 
     public void put(byte b, State s) {
+	if (this.edgeList == null)
+	    throw new UnsupportedOperationException
+		("can't add edges once the trie is compacted");
 	this.edgeList.put(b, s);
     }
 
     public byte[] keys() {
-	return this.edgeList.keys();
+	if (this.edgeList != null)
+	    return this.edgeList.keys();
+	return (this.edgeTarget != null) ? new byte[] {this.edgeKey} : NO_KEYS;
+    }
+
+
+    /**
+       Replaces the edge list, once the trie is complete, with the
+       layout that suits the state's fan-out: nothing at all for a
+       leaf, the state's own fields for a single edge, a small sorted
+       array for a few, and a dense array with one slot per byte
+       class when there are many edges, or they fill half the slots
+       anyway.  The root is always dense.  No edges can be added
+       afterwards, except to the root.
+     */
+    public void compactEdges(byte[] classes, int width) {
+	byte[] keys = this.edgeList.keys();
+	if (this.depth == 0 || keys.length >= DENSE_FAN_OUT
+	    || keys.length * 2 >= width)
+	    this.edgeList = DenseEdgeList.copyOf(this.edgeList, classes, width);
+	else if (keys.length <= 1) {
+	    if (keys.length == 1) {
+		this.edgeKey = keys[0];
+		this.edgeTarget = this.edgeList.get(keys[0]);
+	    }
+	    this.edgeList = null;
+	} else
+	    this.edgeList = new SortedEdgeList(this.edgeList);
+    }
+
+
+    /**
+       Counts this state's edge list in the stats.
+     */
+    void countEdges(EdgeStats stats) {
+	if (this.edgeList != null)
+	    stats.add(this.edgeList);
+	else if (this.edgeTarget != null)
+	    stats.addSingle();
+	else
+	    stats.addEmpty();
     }
 
 
@@ -94,12 +167,65 @@ class State {
     }
 
 
-    public void addOutput(Object o) {
-	this.outputs.add(o);
+    /**
+       Returns the nearest state on the fail chain that has outputs
+       of its own, or null.  Set up by AhoCorasick.prepare().
+     */
+    public State getOutputLink() {
+	return this.outputLink;
+    }
+
+
+    public void setOutputLink(State s) {
+	this.outputLink = s;
+    }
+
+
+    /**
+       Returns the length of the path from the root to this state.
+     */
+    public int getDepth() {
+	return this.depth;
+    }
+
+
+    /**
+       Returns the position of this state in breadth-first order.
+       Only meaningful once AhoCorasick.prepare() has numbered the
+       states.
+     */
+    public int getId() {
+	return this.id;
+    }
+
+
+    public void setId(int id) {
+	this.id = id;
+    }
+
+
+    public void addPatternId(int id) {
+	int[] result = Arrays.copyOf(this.patternIds,
+				     this.patternIds.length + 1);
+	result[this.patternIds.length] = id;
+	this.patternIds = result;
+    }
+
+
+    /**
+       Returns the ids of the keywords that end exactly at this state
+       (shorter keywords that are suffixes of these live further down
+       the output links).  The array is shared: callers must not
+       modify it.  Only valid while the trie is being built;
+       AhoCorasick.prepare() moves the ids into one shared array and
+       calls releasePatternIds().
+     */
+    public int[] getPatternIds() {
+	return this.patternIds;
     }
 
 
-    public Set getOutputs() {
-	return this.outputs;
+    public void releasePatternIds() {
+	this.patternIds = null;
     }
 }
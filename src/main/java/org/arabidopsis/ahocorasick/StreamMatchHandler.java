@@ -0,0 +1,16 @@
+package org.arabidopsis.ahocorasick;
+
+
+/**
+   Receives matches from a StreamSearcher.  Same contract as
+   MatchHandler, except that indices count bytes from the start of
+   the stream and so may not fit in an int.
+ */
+public interface StreamMatchHandler {
+    /**
+       Called once for every keyword that ends at lastIndex (one
+       byte after the last matching character, counted from the
+       start of the stream).  Returning false stops the search.
+     */
+    boolean onMatch(int patternId, long lastIndex);
+}
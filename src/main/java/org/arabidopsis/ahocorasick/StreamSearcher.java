@@ -0,0 +1,178 @@
+package org.arabidopsis.ahocorasick;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+   <p>A search over a haystack that arrives in pieces.  The automaton
+   state is carried from one piece to the next, so keywords that
+   straddle a piece boundary are still found, and reported indices
+   are absolute offsets into the whole stream.  Memory use does not
+   depend on the length of the stream.</p>
+
+   <p>Bytes can be pushed with feed(), or pulled from an InputStream
+   or a ReadableByteChannel with search().  A StreamSearcher is
+   not thread safe, but any number of them can share one
+   AhoCorasick.</p>
+
+   <p>
+   Example usage:
+   <code><pre>
+       StreamSearcher searcher = tree.newStreamSearcher();
+       searcher.search(new FileInputStream("huge.log"), handler);
+   </pre></code>
+   </p>
+ */
+public class StreamSearcher {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Automaton tree;
+    private int state;
+    private long position;
+    private byte[] buffer;
+
+    StreamSearcher(Automaton tree) {
+	this.tree = tree;
+	this.reset();
+    }
+
+
+    /**
+       Forgets everything fed so far, so that the next byte is
+       treated as the start of a new stream.
+     */
+    public void reset() {
+	this.state = 0;
+	this.position = 0;
+    }
+
+
+    /**
+       Returns the number of bytes searched so far.
+     */
+    public long position() {
+	return this.position;
+    }
+
+
+    /**
+       Searches bytes[off, off + len) as the continuation of
+       everything fed so far.  Returns false if the handler stopped
+       the search; position() then tells how many bytes were
+       consumed, and the rest of the piece can be fed again to
+       resume.
+     */
+    public boolean feed(byte[] bytes, int off, int len,
+			StreamMatchHandler handler) {
+	if (off < 0 || len < 0 || off + len > bytes.length)
+	    throw new IndexOutOfBoundsException();
+	Automaton tree = this.tree;
+	Prefilter prefilter = tree.prefilter();
+	int s = this.state;
+	long base = this.position - off;
+	for (int i = off, end = off + len; i < end; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skipPiece(bytes, i, end)) == end)
+		break;
+	    s = tree.transition(s, bytes[i] & 0xFF);
+	    if (tree.isTerminal(s) && ! tree.report(s, base + i + 1, handler)) {
+		this.state = s;
+		this.position = base + i + 1;
+		return false;
+	    }
+	}
+	this.state = s;
+	this.position = base + off + len;
+	return true;
+    }
+
+
+    /**
+       Searches the bytes between the buffer's position and its
+       limit as the continuation of everything fed so far, reading
+       heap and direct buffers in place.  The buffer's position moves
+       past the bytes consumed: to its limit, or, if the handler
+       stopped the search, just past the byte it stopped on.
+     */
+    public boolean feed(ByteBuffer buffer, StreamMatchHandler handler) {
+	Automaton tree = this.tree;
+	Prefilter prefilter = tree.prefilter();
+	int s = this.state;
+	int start = buffer.position();
+	for (int i = start, end = buffer.limit(); i < end; i++) {
+	    if (s == 0 && prefilter != null
+		&& (i = prefilter.skipPiece(buffer, i, end)) == end)
+		break;
+	    s = tree.transition(s, buffer.get(i) & 0xFF);
+	    if (tree.isTerminal(s)
+		&& ! tree.report(s, this.position + (i - start) + 1, handler)) {
+		this.state = s;
+		this.position += i - start + 1;
+		((Buffer) buffer).position(i + 1);
+		return false;
+	    }
+	}
+	this.state = s;
+	this.position += buffer.limit() - start;
+	((Buffer) buffer).position(buffer.limit());
+	return true;
+    }
+
+
+    /**
+       Searches a single byte as the continuation of everything fed
+       so far.  Convenient for callers that produce the haystack a
+       byte at a time, such as encoders.  Returns false if the
+       handler stopped the search.
+     */
+    public boolean feed(byte b, StreamMatchHandler handler) {
+	this.state = this.tree.transition(this.state, b & 0xFF);
+	this.position++;
+	return ! this.tree.isTerminal(this.state)
+	    || this.tree.report(this.state, this.position, handler);
+    }
+
+
+    /**
+       Reads the stream to its end (or until the handler stops the
+       search), feeding it through this searcher.  The stream is not
+       closed.  Returns false if the handler stopped the search.
+     */
+    public boolean search(InputStream in, StreamMatchHandler handler)
+	throws IOException {
+	byte[] buffer = this.buffer();
+	int n;
+	while ((n = in.read(buffer)) != -1)
+	    if (! this.feed(buffer, 0, n, handler))
+		return false;
+	return true;
+    }
+
+
+    /**
+       Like search(InputStream, StreamMatchHandler), but reads from a
+       channel.
+     */
+    public boolean search(ReadableByteChannel channel,
+			  StreamMatchHandler handler) throws IOException {
+	ByteBuffer buffer = ByteBuffer.wrap(this.buffer());
+	while (channel.read(buffer) != -1) {
+	    ((Buffer) buffer).flip();
+	    if (! this.feed(buffer, handler))
+		return false;
+	    ((Buffer) buffer).clear();
+	}
+	return true;
+    }
+
+
+    private byte[] buffer() {
+	if (this.buffer == null)
+	    this.buffer = new byte[BUFFER_SIZE];
+	return this.buffer;
+    }
+}
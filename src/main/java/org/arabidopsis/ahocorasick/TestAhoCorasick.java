@@ -2,7 +2,10 @@ package org.arabidopsis.ahocorasick;
 
 import junit.framework.TestCase;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -38,13 +41,13 @@ public class TestAhoCorasick extends TestCase {
 	assertEquals(s0, s5.getFail());	
 	assertEquals(s0, s6.getFail());
 	
-	assertEquals(0, s0.getOutputs().size());
-	assertEquals(0, s1.getOutputs().size());
-	assertEquals(0, s2.getOutputs().size());
-	assertEquals(0, s3.getOutputs().size());
-	assertEquals(0, s4.getOutputs().size());
-	assertEquals(1, s5.getOutputs().size());
-	assertEquals(1, s6.getOutputs().size());
+	assertEquals(0, tree.getPatternIds(s0).length);
+	assertEquals(0, tree.getPatternIds(s1).length);
+	assertEquals(0, tree.getPatternIds(s2).length);
+	assertEquals(0, tree.getPatternIds(s3).length);
+	assertEquals(0, tree.getPatternIds(s4).length);
+	assertEquals(1, tree.getPatternIds(s5).length);
+	assertEquals(1, tree.getPatternIds(s6).length);
 
 	assertTrue(s6 != null);
     }
@@ -82,15 +85,19 @@ public class TestAhoCorasick extends TestCase {
 	assertEquals(s3, s7.getFail());
 	assertEquals(s3, s9.getFail());
 
-	assertEquals(0, s1.getOutputs().size());
-	assertEquals(0, s3.getOutputs().size());
-	assertEquals(0, s4.getOutputs().size());
-	assertEquals(0, s6.getOutputs().size());
-	assertEquals(0, s8.getOutputs().size());
-	assertEquals(1, s2.getOutputs().size());
-	assertEquals(1, s7.getOutputs().size());
-	assertEquals(1, s9.getOutputs().size());
-	assertEquals(2, s5.getOutputs().size());
+	assertEquals(0, tree.getPatternIds(s1).length);
+	assertEquals(0, tree.getPatternIds(s3).length);
+	assertEquals(0, tree.getPatternIds(s4).length);
+	assertEquals(0, tree.getPatternIds(s6).length);
+	assertEquals(0, tree.getPatternIds(s8).length);
+	assertEquals(1, tree.getPatternIds(s2).length);
+	assertEquals(1, tree.getPatternIds(s7).length);
+	assertEquals(1, tree.getPatternIds(s9).length);
+	assertEquals(1, tree.getPatternIds(s5).length);
+
+	assertEquals(s2, s5.getOutputLink());
+	assertEquals(null, s2.getOutputLink());
+	assertEquals(null, s9.getOutputLink());
     }
 
 
@@ -203,6 +210,625 @@ public class TestAhoCorasick extends TestCase {
     }
 
 
+    public void testCompileBeforePrepareFails() {
+	tree.add("moo".getBytes(), "moo");
+	try {
+	    tree.compile();
+	    fail();
+	} catch (IllegalStateException e) {
+	}
+    }
+
+
+    public void testCompiledSearch() {
+	tree.add("moo".getBytes(), "moo");
+	tree.add("one".getBytes(), "one");
+	tree.add("on".getBytes(), "on");
+	tree.add("ne".getBytes(), "ne");
+	tree.prepare();
+	tree.compile();
+	assertEquals(Arrays.asList(new String[] {
+	    "2=[on]", "3=[ne, one]", "7=[moo]", "8=[on]" }),
+		     matches(tree, "one moon ago".getBytes()));
+    }
+
+
+    public void testCompiledSearchAgreesWithUncompiled() {
+	Random random = new Random(42);
+	AhoCorasick compiledTree = new AhoCorasick();
+	for (int i = 0; i < 500; i++) {
+	    byte[] keyword = randomBytes(random, 1 + random.nextInt(6));
+	    tree.add(keyword, new Integer(i));
+	    compiledTree.add(keyword, new Integer(i));
+	}
+	tree.prepare();
+	compiledTree.prepare();
+	compiledTree.compile();
+	byte[] text = randomBytes(random, 20000);
+	assertEquals(matches(tree, text), matches(compiledTree, text));
+    }
+
+
+    public void testDeterministicSearch() {
+	tree.add("moo".getBytes(), "moo");
+	tree.add("one".getBytes(), "one");
+	tree.add("on".getBytes(), "on");
+	tree.add("ne".getBytes(), "ne");
+	tree.prepare(true);
+	assertEquals(Arrays.asList(new String[] {
+	    "2=[on]", "3=[ne, one]", "7=[moo]", "8=[on]" }),
+		     matches(tree, "one moon ago".getBytes()));
+    }
+
+
+    public void testDeterministicSearchAgreesWithFailLinks() {
+	Random random = new Random(7);
+	AhoCorasick deterministicTree = new AhoCorasick();
+	for (int i = 0; i < 500; i++) {
+	    byte[] keyword = randomBytes(random, 1 + random.nextInt(6));
+	    tree.add(keyword, new Integer(i));
+	    deterministicTree.add(keyword, new Integer(i));
+	}
+	tree.prepare();
+	deterministicTree.prepare(true);
+	byte[] text = randomBytes(random, 20000);
+	assertEquals(matches(tree, text), matches(deterministicTree, text));
+    }
+
+
+    public void testParallelBuildMatchesSerialBuild() {
+	Random random = new Random(17);
+	byte[][] keywords = new byte[5000][];
+	Object[] outputs = new Object[keywords.length];
+	for (int i = 0; i < keywords.length; i++) {
+	    keywords[i] = randomBytes(random, random.nextInt(9));
+	    outputs[i] = new Integer(i);
+	    tree.add(keywords[i], outputs[i]);
+	}
+	tree.prepare(true);
+	ForkJoinPool pool = new ForkJoinPool(4);
+	AhoCorasick parallelTree = new AhoCorasick();
+	assertEquals(0, parallelTree.addAll(keywords, outputs, pool));
+	parallelTree.prepare(true, pool);
+	pool.shutdown();
+
+	assertEquals(tree.stateCount(), parallelTree.stateCount());
+	for (int s = 0; s < tree.stateCount(); s++) {
+	    assertEquals(tree.depth(s), parallelTree.depth(s));
+	    assertEquals(tree.outputLink(s), parallelTree.outputLink(s));
+	    assertEquals(tree.outputStart(s), parallelTree.outputStart(s));
+	    for (int c = 0; c < 256; c++)
+		assertEquals(tree.transition(s, c), parallelTree.transition(s, c));
+	}
+	byte[] text = randomBytes(random, 20000);
+	assertEquals(matches(tree, text), matches(parallelTree, text));
+    }
+
+
+    public void testEdgeLayoutFollowsFanOut() {
+	tree.add("he".getBytes(), "he");
+	tree.add("she".getBytes(), "she");
+	tree.add("his".getBytes(), "his");
+	tree.add("hers".getBytes(), "hers");
+	EdgeStats stats = tree.edgeStats();
+	assertEquals(1, stats.getDenseCount());
+	assertEquals(6, stats.getSparseCount());
+	assertEquals(3, stats.getEmptyCount());
+
+	tree.prepare();
+	stats = tree.edgeStats();
+	assertEquals(1, stats.getDenseCount());
+	assertEquals(6, stats.getDenseSlots());
+	assertEquals(1, stats.getSortedCount());
+	assertEquals(5, stats.getSingleCount());
+	assertEquals(3, stats.getEmptyCount());
+	assertEquals(0, stats.getSparseCount());
+	assertEquals(Arrays.asList(new String[] {
+	    "4=[he, she]", "6=[hers]", "10=[his]" }),
+		     matches(tree, "ushers his".getBytes()));
+    }
+
+
+    public void testDeterministicTableBytes() {
+	tree.add("he".getBytes(), "he");
+	tree.add("she".getBytes(), "she");
+	tree.add("his".getBytes(), "his");
+	tree.add("hers".getBytes(), "hers");
+	assertEquals(10, tree.stateCount());
+	assertEquals(6, tree.byteClassCount());
+	assertEquals(10 * 6 * 4, tree.deterministicTableBytes());
+	tree.prepare(true);
+	assertEquals(10, tree.stateCount());
+	assertEquals(10 * 6 * 4, tree.deterministicTableBytes());
+    }
+
+
+    public void testByteClassesKeepOtherBytesApart() {
+	Random random = new Random(13);
+	AhoCorasick compiledTree = new AhoCorasick();
+	AhoCorasick deterministicTree = new AhoCorasick();
+	List keywords = new ArrayList();
+	for (int i = 0; i < 100; i++) {
+	    byte[] keyword = randomBytes(random, 1 + random.nextInt(4));
+	    keywords.add(keyword);
+	    tree.add(keyword, new Integer(i));
+	    compiledTree.add(keyword, new Integer(i));
+	    deterministicTree.add(keyword, new Integer(i));
+	}
+	tree.prepare();
+	compiledTree.prepare();
+	compiledTree.compile();
+	deterministicTree.prepare(true);
+	assertEquals(6, tree.byteClassCount());
+
+	byte[] text = new byte[20000];
+	random.nextBytes(text);
+	for (int i = 0; i < text.length; i += 2)
+	    text[i] = randomBytes(random, 1)[0];
+	List expected = naiveMatches(keywords, text);
+	assertFalse(expected.isEmpty());
+	assertEquals(expected, matches(tree, text));
+	assertEquals(expected, matches(compiledTree, text));
+	assertEquals(expected, matches(deterministicTree, text));
+    }
+
+
+    public void testPrefilterGivesSameResults() {
+	Random random = new Random(23);
+	for (int i = 0; i < 300; i++) {
+	    byte[] keyword = randomBytes(random, 1 + random.nextInt(6));
+	    keyword[random.nextInt(Math.min(3, keyword.length))]
+		= (byte) "qx".charAt(random.nextInt(2));
+	    tree.add(keyword, new Integer(i));
+	}
+	tree.prepare();
+	assertFalse(tree.hasPrefilter());
+	tree.usePrefilter(true);
+	assertTrue(tree.hasPrefilter());
+	byte[] text = new byte[20000];
+	for (int i = 0; i < text.length; i++)
+	    text[i] = (byte) (random.nextInt(50) == 0
+			      ? "qx".charAt(random.nextInt(2))
+			      : "abcd\u00ff .".charAt(random.nextInt(7)));
+
+	List found = TestFrozenAhoCorasick.found(tree, text);
+	List leftmost = TestFrozenAhoCorasick.leftmost(tree, text);
+	List results = matches(tree, text);
+	List streamed = streamed(tree, text, random);
+	tree.usePrefilter(false);
+	assertFalse(tree.hasPrefilter());
+	assertEquals(TestFrozenAhoCorasick.found(tree, text), found);
+	assertEquals(TestFrozenAhoCorasick.leftmost(tree, text), leftmost);
+	assertEquals(matches(tree, text), results);
+	assertEquals(streamed(tree, text, random), streamed);
+	assertTrue(found.size() > 100);
+
+	tree.compile();
+	tree.usePrefilter(true);
+	assertEquals(results, matches(tree, text));
+	assertEquals(found, TestFrozenAhoCorasick.found(tree, text));
+	for (int off = 0; off < 2000; off += 100)
+	    assertEquals(tree.containsAny(text, off, 40),
+			 tree.containsAny(ByteBuffer.wrap(text, off, 40)));
+    }
+
+
+    public void testPrefilterWithSingleByteKeywords() {
+	tree.add("q".getBytes(), "q");
+	tree.add("x".getBytes(), "x");
+	tree.prepare();
+	tree.usePrefilter(true);
+	assertTrue(tree.hasPrefilter());
+	byte[] text = "a quick fox, and no other".getBytes();
+	List expected = Arrays.asList(new String[] {"0@3", "1@11"});
+	assertEquals(expected, TestFrozenAhoCorasick.found(tree, text));
+	assertEquals(expected, streamed(tree, text, new Random(3)));
+    }
+
+
+    public void testPrefilterIgnoresCase() {
+	tree = new AhoCorasick(true);
+	tree.add("Quiz".getBytes(), "quiz");
+	tree.add("jazz".getBytes(), "jazz");
+	tree.prepare(true);
+	tree.usePrefilter(true);
+	assertTrue(tree.hasPrefilter());
+	assertEquals(Arrays.asList(new String[] {
+	    "22=[quiz]", "31=[jazz]", "42=[quiz]" }),
+		     matches(tree, "some text, then a QUIZ and JaZz, then quiz".getBytes()));
+    }
+
+
+    public void testPrefilterReadsBuffersOfEitherByteOrder() {
+	tree.add("quiz".getBytes(), "quiz");
+	tree.add("jazz".getBytes(), "jazz");
+	tree.prepare();
+	tree.usePrefilter(true);
+	assertTrue(tree.hasPrefilter());
+	byte[] text = "a long stretch of text, then jazz and a quiz, then more text".getBytes();
+	List expected = TestFrozenAhoCorasick.found(tree, text);
+	assertEquals(2, expected.size());
+	for (int order = 0; order < 2; order++) {
+	    ByteBuffer buffer = ByteBuffer.allocateDirect(text.length + 3);
+	    buffer.order(order == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+	    buffer.put(new byte[3]).put(text);
+	    buffer.position(3);
+	    final List found = new ArrayList();
+	    tree.search(buffer, new MatchHandler() {
+		    public boolean onMatch(int patternId, int lastIndex) {
+			found.add(patternId + "@" + (lastIndex - 3));
+			return true;
+		    }
+		});
+	    assertEquals(expected, found);
+	}
+    }
+
+
+    public void testPrefilterSearchAllocatesNothing() {
+	tree.add("quiz".getBytes(), "quiz");
+	tree.add("jazz".getBytes(), "jazz");
+	tree.prepare();
+	tree.usePrefilter(true);
+	assertTrue(tree.hasPrefilter());
+	byte[] text = new byte[4096];
+	Arrays.fill(text, (byte) 'e');
+	System.arraycopy("quiz".getBytes(), 0, text, 2000, 4);
+	final int[] count = {0};
+	MatchHandler handler = new MatchHandler() {
+		public boolean onMatch(int patternId, int lastIndex) {
+		    count[0]++;
+		    return true;
+		}
+	    };
+	java.lang.management.ThreadMXBean bean =
+	    java.lang.management.ManagementFactory.getThreadMXBean();
+	if (! (bean instanceof com.sun.management.ThreadMXBean))
+	    return;
+	com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+	long thread = Thread.currentThread().getId();
+	tree.search(text, 0, text.length, handler);
+	long before = threads.getThreadAllocatedBytes(thread);
+	for (int i = 0; i < 100; i++)
+	    tree.search(text, 0, text.length, handler);
+	long allocated = threads.getThreadAllocatedBytes(thread) - before;
+	assertEquals(101, count[0]);
+	// A few bytes for the measurement itself, nothing per search
+	assertTrue("allocated " + allocated, allocated < 1000);
+    }
+
+
+    public void testPrefilterNeedsFewFirstBytes() {
+	tree.add("ab".getBytes(), "ab");
+	tree.add("cd".getBytes(), "cd");
+	tree.add("ef".getBytes(), "ef");
+	tree.add("gh".getBytes(), "gh");
+	tree.prepare();
+	tree.usePrefilter(true);
+	assertFalse(tree.hasPrefilter());
+
+	tree = new AhoCorasick();
+	tree.add("moo".getBytes(), "moo");
+	tree.add("".getBytes(), "empty");
+	tree.prepare();
+	tree.usePrefilter(true);
+	assertFalse(tree.hasPrefilter());
+    }
+
+
+    public void testCallbackSearch() {
+	assertEquals(0, tree.add("moo".getBytes(), "moo"));
+	assertEquals(1, tree.add("one".getBytes(), "one"));
+	assertEquals(2, tree.add("on".getBytes(), "on"));
+	assertEquals(3, tree.add("ne".getBytes(), "ne"));
+	tree.prepare();
+	assertEquals("ne", tree.getOutput(3));
+	assertEquals(4, tree.patternCount());
+
+	final List found = new ArrayList();
+	MatchHandler handler = new MatchHandler() {
+		public boolean onMatch(int patternId, int lastIndex) {
+		    found.add(patternId + "@" + lastIndex);
+		    return true;
+		}
+	    };
+	byte[] text = "xone moon ago".getBytes();
+	assertTrue(tree.search(text, 1, text.length - 1, handler));
+	Collections.sort(found.subList(1, 3));
+	assertEquals(Arrays.asList(new String[] {
+	    "2@3", "1@4", "3@4", "0@8", "2@9" }), found);
+
+	found.clear();
+	assertTrue(tree.search(text, 5, 3, handler));
+	assertEquals(Arrays.asList(new String[] { "0@8" }), found);
+    }
+
+
+    public void testCallbackSearchStopsEarly() {
+	tree.add("a".getBytes(), "a");
+	tree.prepare(true);
+	final int[] calls = new int[1];
+	byte[] text = "aaaa".getBytes();
+	assertFalse(tree.search(text, 0, text.length, new MatchHandler() {
+		public boolean onMatch(int patternId, int lastIndex) {
+		    calls[0]++;
+		    return lastIndex < 2;
+		}
+	    }));
+	assertEquals(2, calls[0]);
+    }
+
+
+    public void testBitSetSearch() {
+	tree.add("moo".getBytes(), "moo");
+	tree.add("one".getBytes(), "one");
+	tree.add("on".getBytes(), "on");
+	tree.add("ne".getBytes(), "ne");
+	tree.add("zoo".getBytes(), "zoo");
+	tree.prepare();
+	BitSet found = new BitSet();
+	byte[] text = "one moon ago".getBytes();
+	assertEquals(5, tree.search(text, 0, text.length, found));
+	assertEquals("{0, 1, 2, 3}", found.toString());
+    }
+
+
+    public void testIntArraySearch() {
+	tree.add("moo".getBytes(), "moo");
+	tree.add("on".getBytes(), "on");
+	tree.prepare();
+	byte[] text = "one moon ago".getBytes();
+	int[] ids = new int[2];
+	assertEquals(2, tree.search(text, 0, text.length, ids));
+	assertTrue(Arrays.equals(new int[] { 1, 0 }, ids));
+	ids = new int[4];
+	assertEquals(3, tree.search(text, 0, text.length, ids));
+	assertTrue(Arrays.equals(new int[] { 1, 0, 1, 0 }, ids));
+    }
+
+
+    public void testCaseInsensitive() {
+	String[] modes = { "graph", "compiled", "deterministic" };
+	for (int m = 0; m < modes.length; m++) {
+	    tree = new AhoCorasick(true);
+	    tree.add("Hello".getBytes(), "hello");
+	    tree.add("wORLD".getBytes(), "world");
+	    tree.add("o w".getBytes(), "o w");
+	    tree.prepare(modes[m].equals("deterministic"));
+	    if (modes[m].equals("compiled"))
+		tree.compile();
+	    assertEquals(modes[m], Arrays.asList(new String[] {
+		"5=[hello]", "7=[o w]", "11=[world]", "17=[hello]" }),
+			 matches(tree, "HELLO World hello".getBytes()));
+	}
+    }
+
+
+    public void testCaseSensitiveByDefault() {
+	tree.add("Hello".getBytes(), "hello");
+	tree.prepare();
+	assertEquals(Arrays.asList(new String[] { "11=[hello]" }),
+		     matches(tree, "HELLO Hello".getBytes()));
+    }
+
+
+    public void testContainsAny() {
+	tree.add("moo".getBytes(), "moo");
+	tree.add("zoo".getBytes(), "zoo");
+	tree.prepare();
+	byte[] text = "one moon ago".getBytes();
+	assertTrue(tree.containsAny(text, 0, text.length));
+	assertTrue(tree.containsAny(text, 4, 3));
+	assertFalse(tree.containsAny(text, 4, 2));
+	assertFalse(tree.containsAny(text, 0, 4));
+    }
+
+
+    public void testKeywordLengths() {
+	tree.add("moo".getBytes(), "moo");
+	tree.add("".getBytes(), "empty");
+	tree.add("hello".getBytes(), "hello");
+	assertEquals(3, tree.getKeywordLength(0));
+	assertEquals(0, tree.getKeywordLength(1));
+	assertEquals(5, tree.getKeywordLength(2));
+	try {
+	    tree.getKeywordLength(3);
+	    fail();
+	} catch (IndexOutOfBoundsException e) {
+	}
+    }
+
+
+    public void testByteBufferSearch() {
+	tree.add("moo".getBytes(), "moo");
+	tree.add("on".getBytes(), "on");
+	tree.prepare();
+	byte[] text = "xx one moon ago".getBytes();
+	ByteBuffer heap = ByteBuffer.wrap(text);
+	ByteBuffer direct = ByteBuffer.allocateDirect(text.length);
+	direct.put(text).flip();
+	ByteBuffer[] buffers = { heap, direct };
+	for (int b = 0; b < buffers.length; b++) {
+	    ByteBuffer buffer = buffers[b];
+	    buffer.position(3);
+	    final List found = new ArrayList();
+	    assertTrue(tree.search(buffer, new MatchHandler() {
+		    public boolean onMatch(int patternId, int lastIndex) {
+			found.add(patternId + "@" + lastIndex);
+			return true;
+		    }
+		}));
+	    assertEquals(Arrays.asList(new String[] {
+		"1@5", "0@10", "1@11" }), found);
+	    assertEquals(3, buffer.position());
+	    assertTrue(tree.containsAny(buffer));
+	    buffer.limit(4);
+	    assertFalse(tree.containsAny(buffer));
+	}
+    }
+
+
+    public void testLeftmostLongest() {
+	tree.add("abcd".getBytes(), "abcd");
+	tree.add("b".getBytes(), "b");
+	tree.add("bcd".getBytes(), "bcd");
+	tree.add("bc".getBytes(), "bc");
+	tree.add("de".getBytes(), "de");
+	tree.prepare();
+	assertEquals(Arrays.asList(new String[] { "bcd@4" }),
+		     leftmost(tree, "xbcde".getBytes(), true));
+	assertEquals(Arrays.asList(new String[] { "abcd@4", "bc@7" }),
+		     leftmost(tree, "abcdabc".getBytes(), true));
+    }
+
+
+    public void testLeftmostFirst() {
+	tree.add("b".getBytes(), "b");
+	tree.add("abcd".getBytes(), "abcd");
+	tree.add("bcd".getBytes(), "bcd");
+	tree.add("de".getBytes(), "de");
+	tree.prepare();
+	assertEquals(Arrays.asList(new String[] { "b@2", "de@5" }),
+		     leftmost(tree, "xbcde".getBytes(), false));
+	assertEquals(Arrays.asList(new String[] { "abcd@4" }),
+		     leftmost(tree, "abcde".getBytes(), false));
+    }
+
+
+    public void testLeftmostAgreesWithBruteForce() {
+	Random random = new Random(17);
+	List keywords = new ArrayList();
+	for (int i = 0; i < 300; i++) {
+	    byte[] keyword = randomBytes(random, 1 + random.nextInt(6));
+	    keywords.add(keyword);
+	    tree.add(keyword, new Integer(i));
+	}
+	tree.prepare();
+	byte[] text = randomBytes(random, 5000);
+	assertEquals(naiveLeftmost(keywords, text, true),
+		     leftmost(tree, text, true));
+	assertEquals(naiveLeftmost(keywords, text, false),
+		     leftmost(tree, text, false));
+    }
+
+
+    /**
+       Renders every result of a search as "lastIndex=[sorted outputs]".
+     */
+    static List matches(AhoCorasick tree, byte[] text) {
+	List result = new ArrayList();
+	for (Iterator iter = tree.search(text); iter.hasNext(); ) {
+	    SearchResult r = (SearchResult) iter.next();
+	    result.add(r.getLastIndex() + "=" + new TreeSet(r.getOutputs()));
+	}
+	return result;
+    }
+
+
+    /**
+       Same as matches(), computed by brute force.  The output of
+       keywords[i] is assumed to be new Integer(i).
+     */
+    static List naiveMatches(List keywords, byte[] text) {
+	List result = new ArrayList();
+	for (int end = 1; end <= text.length; end++) {
+	    Set outputs = new TreeSet();
+	    for (int k = 0; k < keywords.size(); k++) {
+		byte[] keyword = (byte[]) keywords.get(k);
+		int start = end - keyword.length;
+		if (start >= 0 && Arrays.equals
+		    (keyword, Arrays.copyOfRange(text, start, end)))
+		    outputs.add(new Integer(k));
+	    }
+	    if (! outputs.isEmpty())
+		result.add(end + "=" + outputs);
+	}
+	return result;
+    }
+
+
+    /**
+       Renders every match of a leftmost search as "output@lastIndex".
+     */
+    static List leftmost(final AhoCorasick tree, byte[] text,
+			 boolean longest) {
+	final List result = new ArrayList();
+	MatchHandler handler = new MatchHandler() {
+		public boolean onMatch(int patternId, int lastIndex) {
+		    result.add(tree.getOutput(patternId) + "@" + lastIndex);
+		    return true;
+		}
+	    };
+	if (longest)
+	    assertTrue(tree.searchLeftmostLongest(text, 0, text.length, handler));
+	else
+	    assertTrue(tree.searchLeftmostFirst(text, 0, text.length, handler));
+	return result;
+    }
+
+
+    /**
+       Same as leftmost(), computed by brute force.  The output of
+       keywords[i] is assumed to be new Integer(i).
+     */
+    static List naiveLeftmost(List keywords, byte[] text, boolean longest) {
+	List result = new ArrayList();
+	int start = 0;
+	while (start < text.length) {
+	    int best = -1;
+	    for (int k = 0; k < keywords.size(); k++) {
+		byte[] keyword = (byte[]) keywords.get(k);
+		int end = start + keyword.length;
+		if (end > text.length || ! Arrays.equals
+		    (keyword, Arrays.copyOfRange(text, start, end)))
+		    continue;
+		if (best < 0 || (longest && keyword.length
+				 > ((byte[]) keywords.get(best)).length))
+		    best = k;
+	    }
+	    if (best < 0) {
+		start++;
+		continue;
+	    }
+	    start += ((byte[]) keywords.get(best)).length;
+	    result.add(best + "@" + start);
+	}
+	return result;
+    }
+
+
+    /**
+       Renders every match of a StreamSearcher, fed the text in
+       random pieces, as "patternId@lastIndex".
+     */
+    static List streamed(Automaton tree, byte[] text, Random random) {
+	final List result = new ArrayList();
+	StreamSearcher searcher = tree.newStreamSearcher();
+	for (int off = 0; off < text.length; ) {
+	    int len = Math.min(text.length - off, random.nextInt(100));
+	    searcher.feed(text, off, len, new StreamMatchHandler() {
+		    public boolean onMatch(int patternId, long lastIndex) {
+			result.add(patternId + "@" + lastIndex);
+			return true;
+		    }
+		});
+	    off += len;
+	}
+	return result;
+    }
+
+
+    /**
+       Random bytes over a small alphabet, so that keywords overlap.
+     */
+    static byte[] randomBytes(Random random, int length) {
+	byte[] result = new byte[length];
+	for (int i = 0; i < length; i++)
+	    result[i] = (byte) ("abcd\u00ff".charAt(random.nextInt(5)));
+	return result;
+    }
+
+
     public void largerTextExample() {
 	String text = "The ga3 mutant of Arabidopsis is a gibberellin-responsive dwarf. We present data showing that the ga3-1 mutant is deficient in ent-kaurene oxidase activity, the first cytochrome P450-mediated step in the gibberellin biosynthetic pathway. By using a combination of conventional map-based cloning and random sequencing we identified a putative cytochrome P450 gene mapping to the same location as GA3. Relative to the progenitor line, two ga3 mutant alleles contained single base changes generating in-frame stop codons in the predicted amino acid sequence of the P450. A genomic clone spanning the P450 locus complemented the ga3-2 mutant. The deduced GA3 protein defines an additional class of cytochrome P450 enzymes. The GA3 gene was expressed in all tissues examined, RNA abundance being highest in inflorescence tissue.";
 	String[] terms = {
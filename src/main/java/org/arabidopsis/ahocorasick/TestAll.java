@@ -8,6 +8,13 @@ public class TestAll extends TestCase {
 	suite.addTestSuite(TestState.class);
 	suite.addTestSuite(TestAhoCorasick.class);
 	suite.addTestSuite(TestQueue.class);
+	suite.addTestSuite(TestStreamSearcher.class);
+	suite.addTestSuite(TestMappedFileScanner.class);
+	suite.addTestSuite(TestLeftmostSearcher.class);
+	suite.addTestSuite(TestFrozenAhoCorasick.class);
+	suite.addTestSuite(TestLayeredAhoCorasick.class);
+	suite.addTestSuite(TestSortedBuilder.class);
+	suite.addTestSuite(TestTokenAhoCorasick.class);
 	return suite;
     }
 }
@@ -0,0 +1,180 @@
+package org.arabidopsis.ahocorasick;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+
+/**
+   Junit test cases for FrozenAhoCorasick.
+ */
+
+public class TestFrozenAhoCorasick extends TestCase {
+
+    private AhoCorasick tree;
+    private Path file;
+
+    public void setUp() throws IOException {
+	this.tree = new AhoCorasick();
+	this.file = Files.createTempFile("snapshot", ".acsn");
+    }
+
+
+    public void tearDown() throws IOException {
+	Files.delete(file);
+    }
+
+
+    public void testSearchesAgreeAfterLoad() throws IOException {
+	Random random = new Random(19);
+	for (int i = 0; i < 500; i++)
+	    tree.add(TestAhoCorasick.randomBytes(random, 1 + random.nextInt(8)),
+		     "k" + i);
+	tree.prepare();
+	tree.save(file);
+	FrozenAhoCorasick frozen = FrozenAhoCorasick.load(file);
+	assertEquals(tree.stateCount(), frozen.stateCount());
+	assertEquals(tree.patternCount(), frozen.patternCount());
+	assertEquals(tree.maxKeywordLength(), frozen.maxKeywordLength());
+
+	byte[] text = TestAhoCorasick.randomBytes(random, 20000);
+	assertEquals(found(tree, text), found(frozen, text));
+	assertEquals(leftmost(tree, text), leftmost(frozen, text));
+	BitSet expected = new BitSet();
+	BitSet actual = new BitSet();
+	assertEquals(tree.search(text, 0, text.length, expected),
+		     frozen.search(text, 0, text.length, actual));
+	assertEquals(expected, actual);
+	for (int id = 0; id < tree.patternCount(); id++) {
+	    assertEquals(tree.getOutput(id), frozen.getOutput(id));
+	    assertEquals(tree.getKeywordLength(id), frozen.getKeywordLength(id));
+	}
+    }
+
+
+    public void testFreeze() {
+	Random random = new Random(23);
+	for (int i = 0; i < 500; i++)
+	    tree.add(TestAhoCorasick.randomBytes(random, 1 + random.nextInt(8)),
+		     new Integer(i));
+	tree.prepare();
+	FrozenAhoCorasick frozen = tree.freeze();
+	assertEquals(tree.stateCount(), frozen.stateCount());
+	assertTrue(frozen.sizeInBytes() > 4L * 5 * tree.stateCount());
+	byte[] text = TestAhoCorasick.randomBytes(random, 20000);
+	assertEquals(found(tree, text), found(frozen, text));
+	assertEquals(leftmost(tree, text), leftmost(frozen, text));
+	assertEquals(new Integer(7), frozen.getOutput(7));
+    }
+
+
+    public void testStreamSearchOverLoadedSnapshot() throws IOException {
+	tree.add("he".getBytes(), "he");
+	tree.add("she".getBytes(), "she");
+	tree.add("hers".getBytes(), "hers");
+	tree.prepare();
+	tree.save(file);
+	FrozenAhoCorasick frozen = FrozenAhoCorasick.load(file);
+	final List found = new ArrayList();
+	StreamSearcher searcher = frozen.newStreamSearcher();
+	byte[] text = "ushers".getBytes();
+	for (int i = 0; i < text.length; i++)
+	    searcher.feed(text[i], new StreamMatchHandler() {
+		    public boolean onMatch(int patternId, long lastIndex) {
+			found.add(patternId + "@" + lastIndex);
+			return true;
+		    }
+		});
+	assertEquals(Arrays.asList(new String[] { "1@4", "0@4", "2@6" }),
+		     found);
+	assertTrue(frozen.containsAny(ByteBuffer.wrap(text)));
+    }
+
+
+    public void testCaseInsensitiveCompiledAndNullOutputs()
+	throws IOException {
+	tree = new AhoCorasick(true);
+	tree.add("Hello".getBytes(), null);
+	tree.add("wörld".getBytes("UTF-8"), "wörld");
+	tree.prepare();
+	tree.compile();
+	tree.save(file);
+	FrozenAhoCorasick frozen = FrozenAhoCorasick.load(file);
+	byte[] text = "HELLO Wörld".getBytes("UTF-8");
+	assertEquals(Arrays.asList(new String[] { "0@5", "1@12" }),
+		     found(frozen, text));
+	assertNull(frozen.getOutput(0));
+	assertEquals("wörld", frozen.getOutput(1));
+    }
+
+
+    public void testEmptyAutomaton() throws IOException {
+	tree.prepare();
+	tree.save(file);
+	FrozenAhoCorasick frozen = FrozenAhoCorasick.load(file);
+	byte[] text = "anything".getBytes();
+	assertFalse(frozen.containsAny(text, 0, text.length));
+    }
+
+
+    public void testOnlyStringOutputsCanBeSaved() throws IOException {
+	tree.add("one".getBytes(), new Integer(1));
+	tree.prepare();
+	try {
+	    tree.save(file);
+	    fail();
+	} catch (IllegalArgumentException e) {
+	}
+    }
+
+
+    public void testRejectsOtherFiles() throws IOException {
+	Files.write(file, new byte[400]);
+	try {
+	    FrozenAhoCorasick.load(file);
+	    fail();
+	} catch (IOException e) {
+	}
+	tree.add("one".getBytes(), "one");
+	tree.prepare();
+	tree.save(file);
+	byte[] bytes = Files.readAllBytes(file);
+	Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+	try {
+	    FrozenAhoCorasick.load(file);
+	    fail();
+	} catch (IOException e) {
+	}
+    }
+
+
+    /**
+       Renders every match as "patternId@lastIndex".
+     */
+    static List found(Automaton automaton, byte[] text) {
+	final List result = new ArrayList();
+	automaton.search(text, 0, text.length, new MatchHandler() {
+		public boolean onMatch(int patternId, int lastIndex) {
+		    result.add(patternId + "@" + lastIndex);
+		    return true;
+		}
+	    });
+	return result;
+    }
+
+
+    static List leftmost(Automaton automaton, byte[] text) {
+	final List result = new ArrayList();
+	automaton.searchLeftmostLongest(text, 0, text.length, new MatchHandler() {
+		public boolean onMatch(int patternId, int lastIndex) {
+		    result.add(patternId + "@" + lastIndex);
+		    return true;
+		}
+	    });
+	return result;
+    }
+}
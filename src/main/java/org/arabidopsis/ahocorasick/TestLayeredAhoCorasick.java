@@ -0,0 +1,151 @@
+package org.arabidopsis.ahocorasick;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+
+/**
+   Junit test cases for LayeredAhoCorasick.
+ */
+
+public class TestLayeredAhoCorasick extends TestCase {
+
+    public void testAddRemoveAndReplace() {
+	LayeredAhoCorasick layered = new LayeredAhoCorasick();
+	layered.add("he".getBytes(), "he");
+	layered.add("she".getBytes(), "she");
+	layered.add("hers".getBytes(), "hers");
+	layered.merge();
+	assertEquals(0, layered.deltaSize());
+
+	layered.remove("he".getBytes());
+	layered.add("his".getBytes(), "his");
+	layered.add("she".getBytes(), "SHE");
+	assertEquals(3, layered.size());
+	assertEquals(2, layered.deltaSize());
+	assertFalse(layered.contains("he".getBytes()));
+
+	byte[] text = "ushers his".getBytes();
+	assertEquals(Arrays.asList(new String[] {"SHE@4", "hers@6", "his@10"}),
+		     found(layered, text));
+	assertFalse(layered.remove("he".getBytes()));
+	assertFalse(layered.containsAny("he he".getBytes(), 0, 5));
+
+	layered.merge();
+	assertEquals(0, layered.deltaSize());
+	assertEquals(Arrays.asList(new String[] {"SHE@4", "hers@6", "his@10"}),
+		     found(layered, text));
+    }
+
+
+    public void testEqualOutputStaysInBase() {
+	LayeredAhoCorasick layered = new LayeredAhoCorasick();
+	layered.add("spam".getBytes(), "spam");
+	layered.add("eggs".getBytes(), "eggs");
+	layered.merge();
+
+	// Sent again as new, equal strings
+	layered.add("spam".getBytes(), new String("spam"));
+	layered.add("eggs".getBytes(), new String("eggs"));
+	assertEquals(0, layered.deltaSize());
+	assertEquals(Arrays.asList(new String[] {"eggs@9", "spam@4"}),
+		     found(layered, "spam eggs".getBytes()));
+
+	layered.add("eggs".getBytes(), "ham");
+	assertEquals(1, layered.deltaSize());
+    }
+
+
+    public void testCaseInsensitive() {
+	LayeredAhoCorasick layered = new LayeredAhoCorasick(true);
+	layered.add("Spam".getBytes(), "spam");
+	assertTrue(layered.contains("SPAM".getBytes()));
+	assertTrue(layered.containsAny("more SPAM".getBytes(), 0, 9));
+	layered.merge();
+	assertTrue(layered.remove("sPaM".getBytes()));
+	assertFalse(layered.containsAny("more SPAM".getBytes(), 0, 9));
+    }
+
+
+    /**
+       Compares searches to a plain map of the live keywords after
+       every change, while merges run on their own threads.
+     */
+    public void testAgreesWithModelDuringMerges() throws InterruptedException {
+	final List threads = new ArrayList();
+	Executor executor = new Executor() {
+		public void execute(Runnable task) {
+		    Thread thread = new Thread(task);
+		    synchronized (threads) {
+			threads.add(thread);
+		    }
+		    thread.start();
+		}
+	    };
+	LayeredAhoCorasick layered = new LayeredAhoCorasick(false, 20, executor);
+	Map model = new HashMap();
+	Random random = new Random(29);
+	byte[] text = TestAhoCorasick.randomBytes(random, 3000);
+	List keywords = new ArrayList();
+	for (int i = 0; i < 150; i++)
+	    keywords.add(TestAhoCorasick.randomBytes(random, 1 + random.nextInt(4)));
+
+	for (int step = 0; step < 600; step++) {
+	    byte[] keyword = (byte[]) keywords.get(random.nextInt(keywords.size()));
+	    String key = new String(keyword, StandardCharsets.ISO_8859_1);
+	    if (random.nextInt(3) == 0) {
+		assertEquals(model.remove(key) != null, layered.remove(keyword));
+	    } else {
+		String output = "k" + step;
+		model.put(key, output);
+		layered.add(keyword, output);
+	    }
+	    if (step % 25 == 0)
+		assertEquals(naive(model, text), found(layered, text));
+	}
+	synchronized (threads) {
+	    for (Iterator it = threads.iterator(); it.hasNext(); )
+		((Thread) it.next()).join();
+	}
+	assertTrue(threads.size() > 0);
+	assertEquals(model.size(), layered.size());
+	assertEquals(naive(model, text), found(layered, text));
+	layered.merge();
+	assertEquals(0, layered.deltaSize());
+	assertEquals(naive(model, text), found(layered, text));
+    }
+
+
+    private static List found(LayeredAhoCorasick layered, byte[] text) {
+	final List found = new ArrayList();
+	layered.search(text, 0, text.length, new OutputHandler() {
+		public boolean onMatch(Object output, int lastIndex) {
+		    found.add(output + "@" + lastIndex);
+		    return true;
+		}
+	    });
+	Collections.sort(found);
+	return found;
+    }
+
+
+    private static List naive(Map model, byte[] text) {
+	List found = new ArrayList();
+	for (Iterator it = model.entrySet().iterator(); it.hasNext(); ) {
+	    Map.Entry entry = (Map.Entry) it.next();
+	    byte[] keyword = ((String) entry.getKey()).getBytes(StandardCharsets.ISO_8859_1);
+	    for (int end = keyword.length; end <= text.length; end++) {
+		boolean match = true;
+		for (int k = 0; k < keyword.length && match; k++)
+		    match = text[end - keyword.length + k] == keyword[k];
+		if (match)
+		    found.add(entry.getValue() + "@" + end);
+	    }
+	}
+	Collections.sort(found);
+	return found;
+    }
+}
@@ -0,0 +1,137 @@
+package org.arabidopsis.ahocorasick;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+
+/**
+   Junit test cases for LeftmostSearcher.
+ */
+
+public class TestLeftmostSearcher extends TestCase {
+
+    private AhoCorasick tree;
+    private byte[] text;
+
+    public void setUp() {
+	Random random = new Random(11);
+	this.tree = new AhoCorasick();
+	for (int i = 0; i < 200; i++)
+	    tree.add(TestAhoCorasick.randomBytes(random, 1 + random.nextInt(8)),
+		     new Integer(i));
+	tree.prepare();
+	this.text = TestAhoCorasick.randomBytes(random, 10000);
+    }
+
+
+    public void testFeedInPieces() {
+	boolean[] modes = { true, false };
+	for (int m = 0; m < modes.length; m++) {
+	    Random random = new Random(5);
+	    LeftmostSearcher searcher = tree.newLeftmostSearcher(modes[m]);
+	    Collector collector = new Collector();
+	    int off = 0;
+	    while (off < text.length) {
+		int len = Math.min(text.length - off, random.nextInt(10));
+		assertTrue(searcher.feed(text, off, len, collector));
+		off += len;
+	    }
+	    assertTrue(searcher.finish(collector));
+	    assertEquals(text.length, searcher.position());
+	    assertEquals(TestAhoCorasick.leftmost(tree, text, modes[m]),
+			 collector.found);
+	}
+    }
+
+
+    public void testFinishSettlesTheTail() {
+	tree = new AhoCorasick();
+	tree.add("ab".getBytes(), "ab");
+	tree.add("abcd".getBytes(), "abcd");
+	tree.add("c".getBytes(), "c");
+	tree.prepare();
+	LeftmostSearcher searcher = tree.newLeftmostSearcher(true);
+	Collector collector = new Collector();
+	byte[] bytes = "abc".getBytes();
+	assertTrue(searcher.feed(bytes, 0, bytes.length, collector));
+	assertTrue(collector.found.isEmpty());
+	assertTrue(searcher.finish(collector));
+	assertEquals(Arrays.asList(new String[] { "ab@2", "c@3" }),
+		     collector.found);
+    }
+
+
+    public void testFilter() {
+	tree = new AhoCorasick();
+	tree.add("ab".getBytes(), "ab");
+	tree.add("abc".getBytes(), "abc");
+	tree.prepare();
+	LeftmostSearcher searcher = tree.newLeftmostSearcher
+	    (true, new MatchFilter() {
+		    public boolean accept(int patternId, long lastIndex) {
+			return patternId != 1;
+		    }
+		});
+	Collector collector = new Collector();
+	byte[] bytes = "abcabc".getBytes();
+	searcher.feed(bytes, 0, bytes.length, collector);
+	searcher.finish(collector);
+	assertEquals(Arrays.asList(new String[] { "ab@2", "ab@5" }),
+		     collector.found);
+    }
+
+
+    public void testStopAndResume() {
+	List expected = TestAhoCorasick.leftmost(tree, text, true);
+	LeftmostSearcher searcher = tree.newLeftmostSearcher(true);
+	Collector collector = new Collector();
+	collector.limit = 3;
+	assertFalse(searcher.feed(text, 0, text.length, collector));
+	int taken = (int) searcher.position();
+	collector.limit = Integer.MAX_VALUE;
+	assertTrue(searcher.feed(text, taken, text.length - taken, collector));
+	assertTrue(searcher.finish(collector));
+	assertEquals(expected, collector.found);
+    }
+
+
+    public void testStopAfterEveryMatch() {
+	List expected = TestAhoCorasick.leftmost(tree, text, false);
+	LeftmostSearcher searcher = tree.newLeftmostSearcher(false);
+	Collector collector = new Collector();
+	int taken = 0;
+	do {
+	    collector.limit = collector.found.size() + 1;
+	    searcher.feed(text, taken, text.length - taken, collector);
+	    taken = (int) searcher.position();
+	} while (taken < text.length);
+	collector.limit = Integer.MAX_VALUE;
+	assertTrue(searcher.finish(collector));
+	assertEquals(expected, collector.found);
+    }
+
+
+    public void testReset() {
+	LeftmostSearcher searcher = tree.newLeftmostSearcher(false);
+	searcher.feed(text, 0, 100, new Collector());
+	searcher.reset();
+	assertEquals(0, searcher.position());
+	Collector collector = new Collector();
+	searcher.feed(text, 0, text.length, collector);
+	searcher.finish(collector);
+	assertEquals(TestAhoCorasick.leftmost(tree, text, false),
+		     collector.found);
+    }
+
+
+    private class Collector implements StreamMatchHandler {
+	List found = new ArrayList();
+	int limit = Integer.MAX_VALUE;
+
+	public boolean onMatch(int patternId, long lastIndex) {
+	    found.add(tree.getOutput(patternId) + "@" + lastIndex);
+	    return found.size() < limit;
+	}
+    }
+}
@@ -0,0 +1,96 @@
+package org.arabidopsis.ahocorasick;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+   Junit test cases for MappedFileScanner.
+ */
+
+public class TestMappedFileScanner extends TestCase {
+
+    private AhoCorasick tree;
+    private Path file;
+
+    public void setUp() throws IOException {
+	this.tree = new AhoCorasick();
+	this.file = Files.createTempFile("scanner", ".txt");
+    }
+
+
+    public void tearDown() throws IOException {
+	Files.delete(file);
+    }
+
+
+    public void testMatchesAcrossChunkBoundariesAreFoundOnce()
+	throws IOException {
+	Random random = new Random(11);
+	for (int i = 0; i < 300; i++)
+	    tree.add(TestAhoCorasick.randomBytes(random, 1 + random.nextInt(12)),
+		     new Integer(i));
+	tree.prepare();
+	byte[] text = TestAhoCorasick.randomBytes(random, 50000);
+	Files.write(file, text);
+
+	final List expected = new ArrayList();
+	tree.search(text, 0, text.length, new MatchHandler() {
+		public boolean onMatch(int patternId, int lastIndex) {
+		    expected.add(patternId + "@" + lastIndex);
+		    return true;
+		}
+	    });
+
+	final List found = new ArrayList();
+	MappedFileScanner scanner =
+	    new MappedFileScanner(tree, new ForkJoinPool(4), 97);
+	assertTrue(scanner.scan(file, new StreamMatchHandler() {
+		public boolean onMatch(int patternId, long lastIndex) {
+		    found.add(patternId + "@" + lastIndex);
+		    return true;
+		}
+	    }));
+	assertEquals(expected, found);
+    }
+
+
+    public void testHandlerCanStopEarly() throws IOException {
+	tree.add("moo".getBytes(), "moo");
+	tree.prepare();
+	byte[] text = new byte[100000];
+	for (int i = 0; i + 3 <= text.length; i += 10)
+	    System.arraycopy("moo".getBytes(), 0, text, i, 3);
+	Files.write(file, text);
+
+	final List found = new ArrayList();
+	MappedFileScanner scanner =
+	    new MappedFileScanner(tree, new ForkJoinPool(2), 1000);
+	assertFalse(scanner.scan(file, new StreamMatchHandler() {
+		public boolean onMatch(int patternId, long lastIndex) {
+		    found.add(Long.valueOf(lastIndex));
+		    return found.size() < 250;
+		}
+	    }));
+	assertEquals(250, found.size());
+	assertEquals(Long.valueOf(2493), found.get(249));
+    }
+
+
+    public void testEmptyFile() throws IOException {
+	tree.add("moo".getBytes(), "moo");
+	tree.prepare();
+	assertTrue(new MappedFileScanner(tree).scan
+		   (file, new StreamMatchHandler() {
+			   public boolean onMatch(int patternId, long lastIndex) {
+			       fail();
+			       return true;
+			   }
+		       }));
+    }
+}
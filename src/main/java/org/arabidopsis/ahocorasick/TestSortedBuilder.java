@@ -0,0 +1,108 @@
+package org.arabidopsis.ahocorasick;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+
+/**
+   Junit test cases for SortedBuilder.
+ */
+
+public class TestSortedBuilder extends TestCase {
+
+    public void testAgreesWithAhoCorasick() {
+	Random random = new Random(31);
+	byte[][] keywords = sortedKeywords(random, 3000);
+	AhoCorasick tree = new AhoCorasick();
+	SortedBuilder builder = new SortedBuilder();
+	for (int i = 0; i < keywords.length; i++) {
+	    assertEquals(tree.add(keywords[i], new Integer(i)),
+			 builder.add(keywords[i], new Integer(i)));
+	}
+	tree.prepare();
+	FrozenAhoCorasick built = builder.build();
+
+	assertEquals(tree.stateCount(), built.stateCount());
+	assertEquals(tree.patternCount(), built.patternCount());
+	assertEquals(tree.maxKeywordLength(), built.maxKeywordLength());
+	for (int s = 0; s < tree.stateCount(); s++) {
+	    assertEquals(tree.depth(s), built.depth(s));
+	    assertEquals(tree.outputLink(s), built.outputLink(s));
+	    assertEquals(tree.outputStart(s), built.outputStart(s));
+	    for (int c = 0; c < 256; c++)
+		assertEquals(tree.transition(s, c), built.transition(s, c));
+	}
+	byte[] text = TestAhoCorasick.randomBytes(random, 20000);
+	assertEquals(TestFrozenAhoCorasick.found(tree, text),
+		     TestFrozenAhoCorasick.found(built, text));
+	assertEquals(TestFrozenAhoCorasick.leftmost(tree, text),
+		     TestFrozenAhoCorasick.leftmost(built, text));
+	assertEquals(new Integer(5), built.getOutput(5));
+    }
+
+
+    public void testSaveAndLoad() throws IOException {
+	SortedBuilder builder = new SortedBuilder(true);
+	builder.add("HE".getBytes(), "he");
+	builder.add("hers".getBytes(), "hers");
+	builder.add("his".getBytes(), "his");
+	builder.add("she".getBytes(), "she");
+	Path file = Files.createTempFile("sorted", ".acsn");
+	try {
+	    builder.save(file);
+	    FrozenAhoCorasick frozen = FrozenAhoCorasick.load(file);
+	    byte[] text = "USHERS".getBytes();
+	    assertEquals(Arrays.asList(new String[] {"3@4", "0@4", "1@6"}),
+			 TestFrozenAhoCorasick.found(frozen, text));
+	    assertEquals("she", frozen.getOutput(3));
+	} finally {
+	    Files.delete(file);
+	}
+    }
+
+
+    public void testRejectsUnsortedInput() {
+	SortedBuilder builder = new SortedBuilder();
+	builder.add("abc".getBytes(), null);
+	builder.add("abc".getBytes(), null);
+	try {
+	    builder.add("ab".getBytes(), null);
+	    fail();
+	} catch (IllegalArgumentException e) {
+	}
+	try {
+	    builder.add("abb".getBytes(), null);
+	    fail();
+	} catch (IllegalArgumentException e) {
+	}
+	builder.add(new byte[] {'a', (byte) 0xFF}, null);
+	builder.build();
+	try {
+	    builder.add("b".getBytes(), null);
+	    fail();
+	} catch (IllegalStateException e) {
+	}
+    }
+
+
+    private static byte[][] sortedKeywords(Random random, int count) {
+	byte[][] keywords = new byte[count][];
+	for (int i = 0; i < count; i++)
+	    keywords[i] = TestAhoCorasick.randomBytes(random, random.nextInt(9));
+	Arrays.sort(keywords, new Comparator() {
+		public int compare(Object a, Object b) {
+		    byte[] x = (byte[]) a;
+		    byte[] y = (byte[]) b;
+		    for (int i = 0; i < Math.min(x.length, y.length); i++)
+			if (x[i] != y[i])
+			    return (x[i] & 0xFF) - (y[i] & 0xFF);
+		    return x.length - y.length;
+		}
+	    });
+	return keywords;
+    }
+}
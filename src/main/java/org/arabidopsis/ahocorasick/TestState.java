@@ -69,4 +69,56 @@ public class TestState extends TestCase {
     }
 
 
+    public void testSparseTurnsDenseWithFanOut() {
+	State s = new State(50);
+	for (int i = 0; i < 40; i++)
+	    s.extend((byte) (i * 3));
+	EdgeStats stats = new EdgeStats();
+	s.countEdges(stats);
+	assertEquals(1, stats.getDenseCount());
+	assertEquals(256, stats.getDenseSlots());
+	assertNotNull(s.get((byte) 117));
+	assertNull(s.get((byte) 118));
+    }
+
+
+    public void testCompactEdgesPicksLayoutByFanOut() {
+	byte[] classes = new byte[256];
+	for (int i = 0; i < 256; i++)
+	    classes[i] = (byte) i;
+	State few = new State(5);
+	State next = few.extend((byte) 200);
+	few.extend((byte) 7);
+	few.extend((byte) 100);
+	few.compactEdges(classes, 256);
+	assertTrue(next == few.get((byte) 200));
+	assertNull(few.get((byte) 8));
+	assertEquals(3, few.keys().length);
+	assertEquals(7, few.keys()[0]);
+
+	State one = new State(5);
+	State only = one.extend((byte) 1);
+	one.compactEdges(classes, 256);
+	assertTrue(only == one.get((byte) 1));
+	assertNull(one.get((byte) 0));
+	assertEquals(1, one.keys().length);
+
+	State leaf = new State(5);
+	leaf.compactEdges(classes, 256);
+	assertNull(leaf.get((byte) 0));
+	assertEquals(0, leaf.keys().length);
+	try {
+	    leaf.extend((byte) 0);
+	    fail();
+	} catch (UnsupportedOperationException e) {
+	}
+
+	EdgeStats stats = new EdgeStats();
+	few.countEdges(stats);
+	one.countEdges(stats);
+	leaf.countEdges(stats);
+	assertEquals(1, stats.getSortedCount());
+	assertEquals(1, stats.getSingleCount());
+	assertEquals(1, stats.getEmptyCount());
+    }
 }
@@ -0,0 +1,137 @@
+package org.arabidopsis.ahocorasick;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.*;
+
+
+/**
+   Junit test cases for StreamSearcher.
+ */
+
+public class TestStreamSearcher extends TestCase {
+
+    private AhoCorasick tree;
+    private byte[] text;
+    private List expected;
+
+    public void setUp() {
+	Random random = new Random(3);
+	this.tree = new AhoCorasick();
+	for (int i = 0; i < 200; i++)
+	    tree.add(TestAhoCorasick.randomBytes(random, 1 + random.nextInt(8)),
+		     new Integer(i));
+	tree.prepare();
+	this.text = TestAhoCorasick.randomBytes(random, 10000);
+	this.expected = new ArrayList();
+	final List expected = this.expected;
+	tree.search(text, 0, text.length, new MatchHandler() {
+		public boolean onMatch(int patternId, int lastIndex) {
+		    expected.add(patternId + "@" + lastIndex);
+		    return true;
+		}
+	    });
+	assertFalse(expected.isEmpty());
+    }
+
+
+    public void testFeedInPieces() {
+	Random random = new Random(5);
+	StreamSearcher searcher = tree.newStreamSearcher();
+	Collector collector = new Collector();
+	int off = 0;
+	while (off < text.length) {
+	    int len = Math.min(text.length - off, random.nextInt(10));
+	    byte[] piece = new byte[len + 2];
+	    System.arraycopy(text, off, piece, 1, len);
+	    assertTrue(searcher.feed(piece, 1, len, collector));
+	    off += len;
+	}
+	assertEquals(text.length, searcher.position());
+	assertEquals(expected, collector.found);
+    }
+
+
+    public void testFeedByteBuffers() {
+	StreamSearcher searcher = tree.newStreamSearcher();
+	Collector collector = new Collector();
+	ByteBuffer direct = ByteBuffer.allocateDirect(1000);
+	for (int off = 0; off < text.length; off += 1000) {
+	    direct.clear();
+	    direct.put(text, off, Math.min(1000, text.length - off)).flip();
+	    assertTrue(searcher.feed(direct, collector));
+	    assertFalse(direct.hasRemaining());
+	}
+	assertEquals(expected, collector.found);
+    }
+
+
+    public void testSearchInputStream() throws IOException {
+	Collector collector = new Collector();
+	assertTrue(tree.newStreamSearcher().search(trickle(text), collector));
+	assertEquals(expected, collector.found);
+    }
+
+
+    public void testSearchChannel() throws IOException {
+	Collector collector = new Collector();
+	assertTrue(tree.newStreamSearcher().search
+		   (Channels.newChannel(trickle(text)), collector));
+	assertEquals(expected, collector.found);
+    }
+
+
+    public void testStopAndResume() {
+	StreamSearcher searcher = tree.newStreamSearcher();
+	Collector collector = new Collector();
+	collector.limit = 3;
+	assertFalse(searcher.feed(text, 0, text.length, collector));
+	assertEquals(3, collector.found.size());
+	int consumed = (int) searcher.position();
+	collector.limit = Integer.MAX_VALUE;
+	assertTrue(searcher.feed(text, consumed, text.length - consumed,
+				 collector));
+	// The match that stopped the search ended at the same byte as
+	// any others still unreported for that byte; those are lost.
+	assertTrue(new HashSet(expected).containsAll(collector.found));
+	assertEquals(expected.get(expected.size() - 1),
+		     collector.found.get(collector.found.size() - 1));
+    }
+
+
+    public void testReset() {
+	StreamSearcher searcher = tree.newStreamSearcher();
+	searcher.feed(text, 0, 100, new Collector());
+	searcher.reset();
+	assertEquals(0, searcher.position());
+	Collector collector = new Collector();
+	searcher.feed(text, 0, text.length, collector);
+	assertEquals(expected, collector.found);
+    }
+
+
+    /**
+       An InputStream that hands out at most a few bytes per read.
+     */
+    private static InputStream trickle(byte[] bytes) {
+	return new ByteArrayInputStream(bytes) {
+		public synchronized int read(byte[] b, int off, int len) {
+		    return super.read(b, off, Math.min(len, 7));
+		}
+	    };
+    }
+
+
+    private static class Collector implements StreamMatchHandler {
+	List found = new ArrayList();
+	int limit = Integer.MAX_VALUE;
+
+	public boolean onMatch(int patternId, long lastIndex) {
+	    found.add(patternId + "@" + lastIndex);
+	    return found.size() < limit;
+	}
+    }
+}
@@ -0,0 +1,169 @@
+package org.arabidopsis.ahocorasick;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+
+/**
+   Junit test cases for TokenAhoCorasick.
+ */
+
+public class TestTokenAhoCorasick extends TestCase {
+    private static final int NEW = 1, YORK = 2, CITY = 3, TIMES = 4;
+
+    public void testPhrases() {
+	TokenAhoCorasick tree = new TokenAhoCorasick();
+	tree.add(new int[] {NEW, YORK}, "new york");
+	tree.add(new int[] {NEW, YORK, CITY}, "new york city");
+	tree.add(new int[] {YORK, CITY}, "york city");
+	tree.add(new int[] {TIMES}, "times");
+	tree.prepare();
+
+	int[] text = {NEW, NEW, YORK, CITY, TIMES, YORK};
+	assertEquals(Arrays.asList(new String[] {"0@3", "1@4", "2@4", "3@5"}),
+		     found(tree, text, 0, text.length));
+	assertEquals(Arrays.asList(new String[] {"2@4"}),
+		     found(tree, text, 2, 2));
+	assertEquals(3, tree.maxKeywordLength());
+	assertEquals(2, tree.getKeywordLength(0));
+	assertEquals("york city", tree.getOutput(2));
+    }
+
+
+    public void testUnknownTokensGoBackToRoot() {
+	TokenAhoCorasick tree = new TokenAhoCorasick();
+	tree.add(new int[] {NEW, YORK}, "new york");
+	tree.prepare();
+
+	int[] text = {NEW, -1, YORK, NEW, YORK, 99, NEW};
+	assertEquals(Arrays.asList(new String[] {"0@5"}),
+		     found(tree, text, 0, text.length));
+	assertEquals(0, tree.step(tree.step(0, NEW), -1));
+    }
+
+
+    public void testReportAndStep() {
+	TokenAhoCorasick tree = new TokenAhoCorasick();
+	tree.add(new int[] {YORK}, "york");
+	tree.add(new int[] {NEW, YORK}, "new york");
+	tree.prepare();
+
+	int s = tree.step(tree.step(0, NEW), YORK);
+	assertTrue(tree.isTerminal(s));
+	final List result = new ArrayList();
+	assertTrue(tree.report(s, 7L, new StreamMatchHandler() {
+		public boolean onMatch(int patternId, long lastIndex) {
+		    result.add(patternId + "@" + lastIndex);
+		    return true;
+		}
+	    }));
+	assertEquals(Arrays.asList(new String[] {"1@7", "0@7"}), result);
+	assertFalse(tree.isTerminal(tree.step(s, CITY)));
+    }
+
+
+    public void testAgreesWithBruteForce() {
+	Random random = new Random(17);
+	for (int round = 0; round < 50; round++) {
+	    TokenAhoCorasick tree = new TokenAhoCorasick();
+	    List keywords = new ArrayList();
+	    int count = 1 + random.nextInt(200);
+	    for (int i = 0; i < count; i++) {
+		int[] keyword = randomTokens(random, 1 + random.nextInt(4), 6);
+		keywords.add(keyword);
+		assertEquals(i, tree.add(keyword, new Integer(i)));
+	    }
+	    tree.prepare();
+	    int[] text = randomTokens(random, 500, 7);
+	    assertEquals(bruteForce(keywords, text),
+			 found(tree, text, 0, text.length));
+	}
+    }
+
+
+    public void testManyStates() {
+	TokenAhoCorasick tree = new TokenAhoCorasick();
+	for (int i = 0; i < 10000; i++)
+	    tree.add(new int[] {i, i + 1, 1000000 + i}, new Integer(i));
+	tree.prepare();
+	assertEquals(1 + 10000 + 2 * 10000, tree.stateCount());
+	int[] text = {4999, 5000, 1004999, 5000, 5001};
+	assertEquals(Arrays.asList(new String[] {"4999@3"}),
+		     found(tree, text, 0, text.length));
+    }
+
+
+    public void testCannotAddAfterPrepare() {
+	TokenAhoCorasick tree = new TokenAhoCorasick();
+	tree.add(new int[] {NEW}, "new");
+	tree.prepare();
+	try {
+	    tree.add(new int[] {YORK}, "york");
+	    fail();
+	} catch (IllegalStateException e) {
+	}
+    }
+
+
+    public void testRejectsNegativeTokens() {
+	TokenAhoCorasick tree = new TokenAhoCorasick();
+	try {
+	    tree.add(new int[] {NEW, -1}, "new ?");
+	    fail();
+	} catch (IllegalArgumentException e) {
+	}
+    }
+
+
+    public void testCannotSearchBeforePrepare() {
+	TokenAhoCorasick tree = new TokenAhoCorasick();
+	tree.add(new int[] {NEW}, "new");
+	try {
+	    found(tree, new int[] {NEW}, 0, 1);
+	    fail();
+	} catch (IllegalStateException e) {
+	}
+    }
+
+
+
+    static List found(TokenAhoCorasick tree, int[] tokens, int off, int len) {
+	final List result = new ArrayList();
+	tree.search(tokens, off, len, new MatchHandler() {
+		public boolean onMatch(int patternId, int lastIndex) {
+		    result.add(patternId + "@" + lastIndex);
+		    return true;
+		}
+	    });
+	return result;
+    }
+
+
+    /**
+       Every occurrence of every keyword, by where it ends, longest
+       first, then by pattern id.
+     */
+    private static List bruteForce(List keywords, int[] text) {
+	List result = new ArrayList();
+	for (int end = 1; end <= text.length; end++) {
+	    for (int length = end; length > 0; length--) {
+		for (int id = 0; id < keywords.size(); id++) {
+		    int[] keyword = (int[]) keywords.get(id);
+		    if (keyword.length == length
+			&& Arrays.equals(keyword, Arrays.copyOfRange(text, end - length, end)))
+			result.add(id + "@" + end);
+		}
+	    }
+	}
+	return result;
+    }
+
+
+    private static int[] randomTokens(Random random, int length, int alphabet) {
+	int[] tokens = new int[length];
+	for (int i = 0; i < length; i++)
+	    tokens[i] = random.nextInt(alphabet) * 1000003;
+	return tokens;
+    }
+}
@@ -4,11 +4,17 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
    Quick and dirty code: measures the amount of time it takes to
    construct an AhoCorasick tree out of all the words in
-   <tt>/usr/share/dict/words</tt>.
+   <tt>/usr/share/dict/words</tt>, on one thread and in parallel,
+   and to load it back from a snapshot instead.
  */
 
 public class TimeTrial {
@@ -18,14 +24,36 @@ public class TimeTrial {
 	BufferedReader reader = new BufferedReader
 	    (new InputStreamReader
 	     (new FileInputStream("/usr/share/dict/words")));
+	List words = new ArrayList();
 	String line;
 	while ((line = reader.readLine()) != null) {
 	    tree.add(line.getBytes(), null);
+	    words.add(line.getBytes());
 	}
 	tree.prepare();
 	long endTime = System.currentTimeMillis();
 	System.out.println("endTime - startTime = " + 
 			   (endTime - startTime) + 
 			   " milliseconds");
+
+	byte[][] keywords = (byte[][]) words.toArray(new byte[words.size()][]);
+	ForkJoinPool pool = ForkJoinPool.commonPool();
+	startTime = System.currentTimeMillis();
+	AhoCorasick parallelTree = new AhoCorasick();
+	parallelTree.addAll(keywords, new Object[keywords.length], pool);
+	parallelTree.prepare(false, pool);
+	endTime = System.currentTimeMillis();
+	System.out.println("parallel build on " + pool.getParallelism() +
+			   " threads = " + (endTime - startTime) +
+			   " milliseconds");
+
+	Path snapshot = Files.createTempFile("words", ".acsn");
+	tree.save(snapshot);
+	startTime = System.currentTimeMillis();
+	FrozenAhoCorasick.load(snapshot);
+	endTime = System.currentTimeMillis();
+	System.out.println("load time = " + (endTime - startTime) +
+			   " milliseconds");
+	Files.delete(snapshot);
     }
 }
@@ -0,0 +1,329 @@
+package org.arabidopsis.ahocorasick;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+   <p>An Aho-Corasick automaton over tokens rather than bytes: its
+   alphabet is the non-negative ints, such as the ids a tokenizer
+   gives the words of a vocabulary, and its keywords are sequences of
+   them, such as multi-word phrases.  A search then takes one step
+   per token instead of one per byte, and a match can only start and
+   end where the tokens do.</p>
+
+   <p>There is no room for a dense table per state over an alphabet
+   that large, so all the goto transitions live in one open
+   addressing hash table of primitive longs and ints, keyed by state
+   and token together.  A negative token, for a word that occurs in
+   no keyword, has no transitions at all and takes the search back
+   to the root.</p>
+
+   <p>
+   Example usage:
+   <code><pre>
+       TokenAhoCorasick tree = new TokenAhoCorasick();
+       tree.add(new int[] {NEW, YORK}, "new york");
+       tree.prepare();
+       tree.search(tokens, 0, tokens.length, handler);
+   </pre></code>
+   </p>
+ */
+public class TokenAhoCorasick {
+    private static final long EMPTY = -1;
+
+    // The goto function: children[k] is the child of the state and
+    // token packed into keys[k], or keys[k] is EMPTY
+    private long[] keys;
+    private int[] children;
+    private int edgeCount;
+
+    private int stateCount;
+    private boolean prepared;
+    private List patterns;
+    private int[] keywordLengths;
+    private int maxKeywordLength;
+
+    // By state, once prepared
+    private int[] patternStates;
+    private int[] fail;
+    private int[] outputLinks;
+    private int[] outputStarts;
+    private int[] outputIds;
+
+    public TokenAhoCorasick() {
+	this.keys = new long[64];
+	Arrays.fill(this.keys, EMPTY);
+	this.children = new int[64];
+	this.stateCount = 1;
+	this.patterns = new ArrayList();
+	this.keywordLengths = new int[16];
+	this.patternStates = new int[16];
+    }
+
+
+
+    /**
+       Adds a keyword, a sequence of non-negative tokens, with the
+       given output, and returns its pattern id.  Ids are handed out
+       as by AhoCorasick.add().
+     */
+    public int add(int[] keyword, Object output) {
+	if (this.prepared)
+	    throw new IllegalStateException
+		("can't add keywords after prepare() is called");
+	int s = 0;
+	for (int i = 0; i < keyword.length; i++) {
+	    if (keyword[i] < 0)
+		throw new IllegalArgumentException
+		    ("tokens must not be negative");
+	    int t = this.child(s, keyword[i]);
+	    if (t < 0)
+		t = this.addChild(s, keyword[i]);
+	    s = t;
+	}
+	int id = this.patterns.size();
+	if (id == this.keywordLengths.length) {
+	    this.keywordLengths = Arrays.copyOf(this.keywordLengths, id * 2);
+	    this.patternStates = Arrays.copyOf(this.patternStates, id * 2);
+	}
+	this.keywordLengths[id] = keyword.length;
+	this.patternStates[id] = s;
+	this.patterns.add(output);
+	this.maxKeywordLength = Math.max(this.maxKeywordLength, keyword.length);
+	return id;
+    }
+
+
+
+    /**
+       Computes the fail and output links, breadth-first, as
+       AhoCorasick.prepare() does.  No keywords can be added after
+       this.
+     */
+    public void prepare() {
+	if (this.prepared)
+	    return;
+	int n = this.stateCount;
+
+	// The children of each state, gathered out of the hash table
+	int[] childStarts = new int[n + 1];
+	for (int k = 0; k < this.keys.length; k++)
+	    if (this.keys[k] != EMPTY)
+		childStarts[(int) (this.keys[k] >>> 32) + 1]++;
+	for (int s = 0; s < n; s++)
+	    childStarts[s + 1] += childStarts[s];
+	int[] childList = new int[this.edgeCount];
+	int[] tokens = new int[this.edgeCount];
+	int[] next = Arrays.copyOf(childStarts, n);
+	for (int k = 0; k < this.keys.length; k++) {
+	    if (this.keys[k] == EMPTY)
+		continue;
+	    int j = next[(int) (this.keys[k] >>> 32)]++;
+	    childList[j] = this.children[k];
+	    tokens[j] = (int) this.keys[k];
+	}
+
+	int patterns = this.patterns.size();
+	this.outputStarts = new int[n + 1];
+	for (int id = 0; id < patterns; id++)
+	    this.outputStarts[this.patternStates[id] + 1]++;
+	for (int s = 0; s < n; s++)
+	    this.outputStarts[s + 1] += this.outputStarts[s];
+	this.outputIds = new int[patterns];
+	next = Arrays.copyOf(this.outputStarts, n);
+	for (int id = 0; id < patterns; id++)
+	    this.outputIds[next[this.patternStates[id]]++] = id;
+	this.patternStates = null;
+
+	this.fail = new int[n];
+	this.outputLinks = new int[n];
+	this.outputLinks[0] = -1;
+	int[] queue = new int[n];
+	int tail = 1;
+	for (int head = 0; head < tail; head++) {
+	    int s = queue[head];
+	    for (int j = childStarts[s]; j < childStarts[s + 1]; j++) {
+		int c = childList[j];
+		queue[tail++] = c;
+		int t = 0;
+		if (s != 0) {
+		    int f = this.fail[s];
+		    while ((t = this.child(f, tokens[j])) < 0 && f != 0)
+			f = this.fail[f];
+		    if (t < 0)
+			t = 0;
+		}
+		this.fail[c] = t;
+		this.outputLinks[c] = (this.outputStarts[t + 1] > this.outputStarts[t])
+		    ? t : this.outputLinks[t];
+	    }
+	}
+	this.prepared = true;
+    }
+
+
+
+    /**
+       Returns the state reached from state s on the given token.
+       Feeding the tokens of a haystack one at a time, starting from
+       state 0, is a search; see report().
+     */
+    public int step(int s, int token) {
+	if (token < 0)
+	    return 0;
+	int t;
+	while ((t = this.child(s, token)) < 0) {
+	    if (s == 0)
+		return 0;
+	    s = this.fail[s];
+	}
+	return t;
+    }
+
+
+
+    /**
+       Reports every keyword that ends at state s, longest first, to
+       the handler.  lastIndex is passed on as is.  Returns false if
+       the handler stopped.
+     */
+    public boolean report(int s, long lastIndex, StreamMatchHandler handler) {
+	this.checkPrepared();
+	for (int t = s; t >= 0; t = this.outputLinks[t])
+	    for (int j = this.outputStarts[t]; j < this.outputStarts[t + 1]; j++)
+		if (! handler.onMatch(this.outputIds[j], lastIndex))
+		    return false;
+	return true;
+    }
+
+
+
+    /**
+       Returns true if any keyword ends at state s.
+     */
+    public boolean isTerminal(int s) {
+	return this.outputStarts[s + 1] > this.outputStarts[s]
+	    || this.outputLinks[s] >= 0;
+    }
+
+
+
+    /**
+       Searches tokens[off, off + len) and calls the handler for
+       every keyword found, in the order their matches end.
+       lastIndex is the index just past the last token of the match.
+       Returns false if the handler stopped the search.
+     */
+    public boolean search(int[] tokens, int off, int len,
+			  MatchHandler handler) {
+	this.checkPrepared();
+	if (off < 0 || len < 0 || off + len > tokens.length)
+	    throw new IndexOutOfBoundsException();
+	int s = 0;
+	for (int i = off, end = off + len; i < end; i++) {
+	    s = this.step(s, tokens[i]);
+	    if (! this.isTerminal(s))
+		continue;
+	    for (int t = s; t >= 0; t = this.outputLinks[t])
+		for (int j = this.outputStarts[t]; j < this.outputStarts[t + 1]; j++)
+		    if (! handler.onMatch(this.outputIds[j], i + 1))
+			return false;
+	}
+	return true;
+    }
+
+
+
+    public Object getOutput(int patternId) {
+	return this.patterns.get(patternId);
+    }
+
+
+    /**
+       Returns the length in tokens of the keyword with the given
+       pattern id.
+     */
+    public int getKeywordLength(int patternId) {
+	if (patternId < 0 || patternId >= this.patterns.size())
+	    throw new IndexOutOfBoundsException();
+	return this.keywordLengths[patternId];
+    }
+
+
+    public int patternCount() {
+	return this.patterns.size();
+    }
+
+
+    /**
+       Returns the length in tokens of the longest keyword.
+     */
+    public int maxKeywordLength() {
+	return this.maxKeywordLength;
+    }
+
+
+    public int stateCount() {
+	return this.stateCount;
+    }
+
+
+
+    private void checkPrepared() {
+	if (! this.prepared)
+	    throw new IllegalStateException
+		("can't start search until prepare()");
+    }
+
+
+    private static int slot(long key, int mask) {
+	long h = key * 0x9E3779B97F4A7C15L;
+	return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+
+    private int child(int s, int token) {
+	long key = ((long) s << 32) | token;
+	int mask = this.keys.length - 1;
+	for (int k = slot(key, mask); ; k = (k + 1) & mask) {
+	    if (this.keys[k] == key)
+		return this.children[k];
+	    if (this.keys[k] == EMPTY)
+		return -1;
+	}
+    }
+
+
+    private int addChild(int s, int token) {
+	if (2 * (this.edgeCount + 1) > this.keys.length)
+	    this.grow();
+	int t = this.stateCount++;
+	this.put(((long) s << 32) | token, t);
+	this.edgeCount++;
+	return t;
+    }
+
+
+    private void put(long key, int child) {
+	int mask = this.keys.length - 1;
+	int k = slot(key, mask);
+	while (this.keys[k] != EMPTY)
+	    k = (k + 1) & mask;
+	this.keys[k] = key;
+	this.children[k] = child;
+    }
+
+
+    private void grow() {
+	long[] keys = this.keys;
+	int[] children = this.children;
+	this.keys = new long[keys.length * 2];
+	Arrays.fill(this.keys, EMPTY);
+	this.children = new int[children.length * 2];
+	for (int k = 0; k < keys.length; k++)
+	    if (keys[k] != EMPTY)
+		this.put(keys[k], children[k]);
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.hindol.commons.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Times each engine of {@link AhoCorasickMatcher} on English-like text, for
+ * growing numbers of needles, to back the thresholds at which the matcher
+ * moves from one engine to the next. Not a test; run it by hand:
+ *
+ * <pre>
+ *     java -cp target/classes:target/test-classes com.github.hindol.commons.util.AhoCorasickMatcherBenchmark
+ * </pre>
+ */
+public class AhoCorasickMatcherBenchmark {
+
+    private static final int[] NEEDLE_COUNTS = {1, 2, 3, 4, 8, 16, 24, 32, 48, 64, 128, 256};
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        String haystack = randomText(random, 4 << 20);
+
+        System.out.printf("%8s %12s %12s %12s%n", "needles", "indexOf", "shiftAnd", "automaton");
+        for (int count : NEEDLE_COUNTS) {
+            List<String> needles = new ArrayList<>(randomWords(random, count));
+            Set<String> needleSet = new LinkedHashSet<>(needles);
+            String[] needleArray = needles.toArray(new String[0]);
+            int[][] codePoints = new int[count][];
+            for (int k = 0; k < count; k++) {
+                codePoints[k] = needleArray[k].codePoints().toArray();
+            }
+
+            AhoCorasickMatcher.Engine indexOf = new IndexOfEngine(needleArray);
+            AhoCorasickMatcher.Engine shiftAnd = ShiftAndEngine.accepts(codePoints)
+                    ? new ShiftAndEngine(codePoints, codePoint -> codePoint) : null;
+            AhoCorasickMatcher automaton = AhoCorasickMatcher.builder().automatonOnly().build(needleSet);
+
+            System.out.printf("%8d %12s %12s %12s%n", count,
+                    count <= 8 ? rate(haystack, () -> count(indexOf, haystack)) : "-",
+                    shiftAnd != null ? rate(haystack, () -> count(shiftAnd, haystack)) : "-",
+                    rate(haystack, () -> automaton.countMatches(haystack)));
+        }
+    }
+
+    private static int count(AhoCorasickMatcher.Engine engine, String haystack) {
+        int[] count = {0};
+        engine.scan(haystack, (int patternId, int end) -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+
+    /**
+     * Best throughput over a few rounds, in MB of chars per second.
+     */
+    private static String rate(String haystack, Search search) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            search.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return String.format("%.0f MB/s", haystack.length() / (best / 1e3));
+    }
+
+    private static Set<String> randomWords(Random random, int count) {
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < count) {
+            words.add(randomText(random, 4 + random.nextInt(5)).trim());
+            words.remove("");
+        }
+        return words;
+    }
+
+    /**
+     * Letters with roughly the frequencies of English, and spaces.
+     */
+    private static String randomText(Random random, int length) {
+        String letters = "eeeeeeeeeeeettttttttaaaaaaaooooooiiiiiiinnnnnnnssssssrrrrrhhhhhlllldddcccuuummffggwwyyppbbvkjxqz    ";
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(letters.charAt(random.nextInt(letters.length())));
+        }
+        return text.toString();
+    }
+
+    private interface Search {
+
+        int run();
+    }
+}
@@ -0,0 +1,293 @@
+package com.github.hindol.commons.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+public class AhoCorasickMatcherTest {
+
+    private final AhoCorasickMatcher mMatcher = AhoCorasickMatcher.builder()
+            .build(ImmutableSet.of("moo", "one", "on", "ne"));
+
+    @Test
+    public void testSearchIn() throws Exception {
+        assertEquals(mMatcher.searchIn("one moon ago"), ImmutableSet.of("moo", "one", "on", "ne"));
+        assertEquals(mMatcher.searchIn("nothing here"), ImmutableSet.of());
+    }
+
+    @Test
+    public void testSearchInWithOutputs() throws Exception {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder()
+                .build(ImmutableMap.of("one", 1, "two", 2));
+
+        assertEquals(matcher.searchIn("two or one"), ImmutableSet.of(1, 2));
+    }
+
+    @Test
+    public void testSearchInWithListener() throws Exception {
+        List<String> found = new ArrayList<>();
+
+        assertTrue(mMatcher.searchIn("moo moo", (String output) -> found.add(output)));
+        assertEquals(found, Arrays.asList("moo", "moo"));
+
+        found.clear();
+        assertFalse(mMatcher.searchIn("moo moo", (String output) -> !found.add(output)));
+        assertEquals(found.size(), 1);
+    }
+
+    @Test
+    public void testContainsAny() throws Exception {
+        assertTrue(mMatcher.containsAny("a moose"));
+        assertFalse(mMatcher.containsAny("nothing here"));
+        assertFalse(mMatcher.containsAny(""));
+    }
+
+    @Test
+    public void testFirstMatch() throws Exception {
+        assertEquals(mMatcher.<String>firstMatch("a moose, one"), "moo");
+        assertEquals(mMatcher.<String>firstMatch("one"), "on");
+        assertNull(mMatcher.firstMatch("nothing here"));
+    }
+
+    @Test
+    public void testCountMatches() throws Exception {
+        assertEquals(mMatcher.countMatches("one moon ago"), 5);
+        assertEquals(mMatcher.countMatches("nothing here"), 0);
+    }
+
+    @Test
+    public void testSpans() throws Exception {
+        assertEquals(mMatcher.spans("one moon"), Arrays.asList(
+                new AhoCorasickMatcher.Span<>(0, 2, "on"),
+                new AhoCorasickMatcher.Span<>(0, 3, "one"),
+                new AhoCorasickMatcher.Span<>(1, 3, "ne"),
+                new AhoCorasickMatcher.Span<>(4, 7, "moo"),
+                new AhoCorasickMatcher.Span<>(6, 8, "on")
+        ));
+    }
+
+    @Test
+    public void testSpansAreCharIndices() throws Exception {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder()
+                .caseInsensitive()
+                .build(ImmutableSet.of("wörld", "\uD83D\uDE00!"));
+
+        assertEquals(matcher.spans("\uD83D\uDE00! WÖRLD"), Arrays.asList(
+                new AhoCorasickMatcher.Span<>(0, 3, "\uD83D\uDE00!"),
+                new AhoCorasickMatcher.Span<>(4, 9, "wörld")
+        ));
+    }
+
+    @Test
+    public void testLeftmostSpans() throws Exception {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder()
+                .build(ImmutableMap.of("new", "new", "new york", "ny", "york city", "ycity", "city", "city"));
+
+        assertEquals(matcher.spans("new york city", AhoCorasickMatcher.MatchKind.LEFTMOST_LONGEST), Arrays.asList(
+                new AhoCorasickMatcher.Span<>(0, 8, "ny"),
+                new AhoCorasickMatcher.Span<>(9, 13, "city")
+        ));
+        assertEquals(matcher.spans("new york city", AhoCorasickMatcher.MatchKind.LEFTMOST_FIRST), Arrays.asList(
+                new AhoCorasickMatcher.Span<>(0, 3, "new"),
+                new AhoCorasickMatcher.Span<>(4, 13, "ycity")
+        ));
+    }
+
+    @Test
+    public void testLeftmostSpansWithWholeWords() throws Exception {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder()
+                .matchWholeWords()
+                .caseInsensitive()
+                .build(ImmutableSet.of("new", "new york", "yorker"));
+
+        assertEquals(matcher.spans("A NEW YORKER!", AhoCorasickMatcher.MatchKind.LEFTMOST_LONGEST), Arrays.asList(
+                new AhoCorasickMatcher.Span<>(2, 5, "new"),
+                new AhoCorasickMatcher.Span<>(6, 12, "yorker")
+        ));
+    }
+
+    @Test
+    public void testLeftmostSpanSettledAfterFourByteCharacter() throws Exception {
+        // "a" is only settled once "abcdef" fails, on the first byte of the emoji, after all
+        // four bytes of it were marked; the other needles keep the automaton in use
+        ImmutableSet.Builder<String> needles = ImmutableSet.<String>builder().add("a", "abcdef");
+        for (int k = 0; k < 100; k++) {
+            needles.add("q" + k);
+        }
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder().build(needles.build());
+
+        assertEquals(matcher.spans("abcde\uD83D\uDE00", AhoCorasickMatcher.MatchKind.LEFTMOST_LONGEST),
+                Arrays.asList(new AhoCorasickMatcher.Span<>(0, 1, "a")));
+    }
+
+    @Test
+    public void testCharSequenceHaystack() throws Exception {
+        StringBuilder haystack = new StringBuilder("one moon");
+
+        assertEquals(mMatcher.searchIn(haystack), ImmutableSet.of("moo", "one", "on", "ne"));
+        assertTrue(mMatcher.containsAny(haystack));
+        assertEquals(mMatcher.countMatches(haystack), 5);
+        assertEquals(mMatcher.spans(haystack, AhoCorasickMatcher.MatchKind.LEFTMOST_LONGEST), Arrays.asList(
+                new AhoCorasickMatcher.Span<>(0, 3, "one"),
+                new AhoCorasickMatcher.Span<>(4, 7, "moo")
+        ));
+    }
+
+    @Test
+    public void testCaseInsensitive() throws Exception {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder()
+                .caseInsensitive()
+                .build(ImmutableSet.of("Hello", "WÖRLD", "straße"));
+
+        assertEquals(matcher.searchIn("hello wörld"), ImmutableSet.of("Hello", "WÖRLD"));
+        assertEquals(matcher.searchIn("HELLO WöRlD"), ImmutableSet.of("Hello", "WÖRLD"));
+        assertEquals(matcher.searchIn("STRAßE"), ImmutableSet.of("straße"));
+        assertEquals(matcher.searchIn("\u212Aelvin \u2126hm"), ImmutableSet.of());
+    }
+
+    @Test
+    public void testCaseInsensitiveFoldsToAscii() throws Exception {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder()
+                .caseInsensitive()
+                .build(ImmutableSet.of("kelvin"));
+
+        // KELVIN SIGN folds to 'k'.
+        assertEquals(matcher.searchIn("\u212Aelvin"), ImmutableSet.of("kelvin"));
+    }
+
+    @Test
+    public void testCaseSensitiveByDefault() throws Exception {
+        assertEquals(mMatcher.searchIn("ONE MOON"), ImmutableSet.of());
+    }
+
+    @Test
+    public void testMatchWholeWords() throws Exception {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder()
+                .matchWholeWords()
+                .build(ImmutableSet.of("new york", "york", "ork"));
+
+        assertEquals(matcher.searchIn("new-york"), ImmutableSet.of("new york", "york"));
+        assertEquals(matcher.searchIn("yorkshire"), ImmutableSet.of());
+        assertEquals(matcher.searchIn("I love York, not york."), ImmutableSet.of("york"));
+        assertEquals(matcher.searchIn("renew york"), ImmutableSet.of("york"));
+    }
+
+    @Test
+    public void testMatchWholeWordsWithDelimiters() throws Exception {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder()
+                .matchWholeWords()
+                .withDelimiters("[,;]")
+                .caseInsensitive()
+                .build(ImmutableSet.of("red wine", "wine"));
+
+        assertEquals(matcher.searchIn("RED WINE;white wine"), ImmutableSet.of("red wine"));
+        assertEquals(matcher.searchIn("white wine,WINE"), ImmutableSet.of("wine"));
+    }
+
+    @Test
+    public void testEngineFollowsNeedleCount() throws Exception {
+        assertTrue(AhoCorasickMatcher.builder()
+                .build(ImmutableSet.of("one", "two")).engine() instanceof IndexOfEngine);
+        assertTrue(AhoCorasickMatcher.builder()
+                .caseInsensitive()
+                .build(ImmutableSet.of("one", "two")).engine() instanceof ShiftAndEngine);
+        assertTrue(mMatcher.engine() instanceof ShiftAndEngine);
+        assertNull(AhoCorasickMatcher.builder()
+                .build(randomNeedles(new Random(1), 100)).engine());
+        assertNull(AhoCorasickMatcher.builder()
+                .offHeap()
+                .build(ImmutableSet.of("one", "two")).engine());
+    }
+
+    @Test
+    public void testEnginesAgreeWithAutomaton() throws Exception {
+        Random random = new Random(5);
+        for (int round = 0; round < 200; round++) {
+            Set<String> needles = randomNeedles(random, 1 + random.nextInt(round % 2 == 0 ? 3 : 30));
+            AhoCorasickMatcher.Builder builder = AhoCorasickMatcher.builder();
+            AhoCorasickMatcher.Builder automatonBuilder = AhoCorasickMatcher.builder().automatonOnly();
+            if (random.nextBoolean()) {
+                builder.caseInsensitive();
+                automatonBuilder.caseInsensitive();
+            }
+            if (random.nextBoolean()) {
+                builder.matchWholeWords();
+                automatonBuilder.matchWholeWords();
+            }
+            AhoCorasickMatcher matcher = builder.build(needles);
+            AhoCorasickMatcher automaton = automatonBuilder.build(needles);
+
+            String haystack = randomText(random, 300);
+            StringBuilder sequence = new StringBuilder(haystack);
+            for (AhoCorasickMatcher.MatchKind kind : AhoCorasickMatcher.MatchKind.values()) {
+                assertEquals(matcher.spans(haystack, kind), automaton.spans(haystack, kind), needles + " " + kind);
+                assertEquals(matcher.spans(sequence, kind), automaton.spans(haystack, kind), needles + " " + kind);
+            }
+            assertEquals(matcher.<String>firstMatch(haystack), automaton.<String>firstMatch(haystack));
+        }
+    }
+
+    @Test
+    public void testAutomatonFindsMatchesAcrossBlocks() throws Exception {
+        // Haystacks of several blocks of UTF-8, with needles straddling where they meet
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            Set<String> needles = randomNeedles(random, 1 + random.nextInt(30));
+            AhoCorasickMatcher.Builder builder = AhoCorasickMatcher.builder();
+            AhoCorasickMatcher.Builder automatonBuilder = AhoCorasickMatcher.builder().automatonOnly();
+            if (random.nextBoolean()) {
+                builder.matchWholeWords();
+                automatonBuilder.matchWholeWords();
+            }
+            AhoCorasickMatcher matcher = builder.build(needles);
+            AhoCorasickMatcher automaton = automatonBuilder.build(needles);
+
+            String haystack = randomText(random, 10000);
+            for (AhoCorasickMatcher.MatchKind kind : AhoCorasickMatcher.MatchKind.values()) {
+                assertEquals(automaton.spans(haystack, kind), matcher.spans(haystack, kind), needles + " " + kind);
+            }
+            assertEquals(automaton.countMatches(haystack), matcher.countMatches(haystack));
+        }
+    }
+
+    private static Set<String> randomNeedles(Random random, int count) {
+        Set<String> needles = new LinkedHashSet<>();
+        while (needles.size() < count) {
+            needles.add(randomText(random, 1 + random.nextInt(4)));
+        }
+        return needles;
+    }
+
+    /**
+     * Text over a few letters in either case, delimiters, a non-ASCII letter,
+     * a surrogate pair and a lone surrogate.
+     */
+    private static String randomText(Random random, int length) {
+        String[] pieces = {"a", "b", "A", "B", "ö", "Ö", " ", "-", "?", "\uD83D\uDE00", "\uD83D"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(pieces[random.nextInt(pieces.length)]);
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.builder()
+                .caseInsensitive()
+                .offHeap()
+                .build(ImmutableMap.of("one", 1, "moo", 2));
+
+        assertEquals(matcher.searchIn("ONE MOON"), ImmutableSet.of(1, 2));
+        assertEquals(matcher.searchIn("nothing here"), ImmutableSet.of());
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.hindol.commons.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+public class AhoCorasickReplacerTest {
+
+    private final AhoCorasickReplacer mReplacer = AhoCorasickReplacer.builder()
+            .build(ImmutableMap.of("he", "HE", "she", "SHE", "hers", "HERS", "his", "HIS"));
+
+    @Test
+    public void testReplaceAll() throws Exception {
+        assertEquals(mReplacer.replaceAll("ushers and his sheep"), "uSHErs and HIS SHEep");
+        assertEquals(mReplacer.replaceAll("nothing"), "nothing");
+        assertEquals(mReplacer.replaceAll(""), "");
+    }
+
+    @Test
+    public void testStaticReplaceAll() throws Exception {
+        assertEquals(AhoCorasickReplacer.replaceAll("cat and dog", ImmutableMap.of("cat", "dog", "dog", "cat")),
+                "dog and cat");
+    }
+
+    @Test
+    public void testMask() throws Exception {
+        AhoCorasickReplacer replacer = AhoCorasickReplacer.builder()
+                .matchWholeWords()
+                .caseInsensitive()
+                .mask(ImmutableSet.of("secret", "päss"), '*');
+
+        assertEquals(replacer.replaceAll("My SECRET PÄSS, not secrets."), "My ****** ****, not secrets.");
+    }
+
+    @Test
+    public void testWriter() throws Exception {
+        StringWriter out = new StringWriter();
+        try (Writer writer = mReplacer.wrap(out)) {
+            for (char c : "ushers and his sheep".toCharArray()) {
+                writer.write(c);
+            }
+        }
+
+        assertEquals(out.toString(), "uSHErs and HIS SHEep");
+    }
+
+    @Test
+    public void testWriterSettlesMatchAfterFourByteCharacter() throws Exception {
+        // "a" is only settled once "abcdef" fails, on the first byte of the emoji
+        AhoCorasickReplacer replacer = AhoCorasickReplacer.builder()
+                .build(ImmutableMap.of("a", "A", "abcdef", "X"));
+
+        StringWriter out = new StringWriter();
+        try (Writer writer = replacer.wrap(out)) {
+            writer.write("abcde\uD83D\uDE00!");
+        }
+
+        assertEquals(out.toString(), "Abcde\uD83D\uDE00!");
+    }
+
+    @Test
+    public void testWriterAgreesWithReplaceAll() throws Exception {
+        Random random = new Random(3);
+        Map<String, String> replacements = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            replacements.put(randomText(random, 1 + random.nextInt(6)), "<" + i + ">");
+        }
+        AhoCorasickReplacer replacer = AhoCorasickReplacer.builder()
+                .matchWholeWords()
+                .build(replacements);
+        String input = randomText(random, 20000);
+
+        StringWriter out = new StringWriter();
+        try (Writer writer = replacer.wrap(out)) {
+            for (int i = 0; i < input.length(); ) {
+                int length = Math.min(input.length() - i, random.nextInt(12));
+                writer.write(input, i, length);
+                i += length;
+            }
+        }
+
+        assertEquals(out.toString(), replacer.replaceAll(input));
+    }
+
+    @Test
+    public void testOutputStream() throws Exception {
+        AhoCorasickReplacer replacer = AhoCorasickReplacer.builder()
+                .build(ImmutableMap.of("wörld", "world", "😀", ":)"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream stream = replacer.wrap(out, StandardCharsets.UTF_8)) {
+            for (byte b : "hello wörld 😀".getBytes(StandardCharsets.UTF_8)) {
+                stream.write(b);
+            }
+        }
+
+        assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), "hello world :)");
+    }
+
+    /**
+     * Random text over a small alphabet, so that needles overlap.
+     */
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append("ab é😀".charAt(random.nextInt(5)));
+        }
+        return text.toString();
+    }
+}
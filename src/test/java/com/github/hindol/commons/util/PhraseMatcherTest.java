@@ -0,0 +1,126 @@
+package com.github.hindol.commons.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+public class PhraseMatcherTest {
+
+    private final PhraseMatcher mMatcher = PhraseMatcher.builder()
+            .build(ImmutableSet.of("new york", "new york city", "york city", "times"));
+
+    @Test
+    public void testSearchIn() throws Exception {
+        assertEquals(mMatcher.searchIn("the new york times"), ImmutableSet.of("new york", "times"));
+        assertEquals(mMatcher.searchIn("new york city"), ImmutableSet.of("new york", "new york city", "york city"));
+        assertEquals(mMatcher.searchIn("newyork city, sometimes"), ImmutableSet.of());
+    }
+
+    @Test
+    public void testSearchInWithOutputs() throws Exception {
+        PhraseMatcher matcher = PhraseMatcher.builder()
+                .build(ImmutableMap.of("one two", 12, "two", 2));
+
+        assertEquals(matcher.searchIn("one two three"), ImmutableSet.of(12, 2));
+    }
+
+    @Test
+    public void testSearchInWithListener() throws Exception {
+        List<String> found = new ArrayList<>();
+
+        assertTrue(mMatcher.searchIn("times, times", (String output) -> found.add(output)));
+        assertEquals(found, Arrays.asList("times", "times"));
+
+        found.clear();
+        assertFalse(mMatcher.searchIn("times, times", (String output) -> !found.add(output)));
+        assertEquals(found.size(), 1);
+    }
+
+    @Test
+    public void testAnyRunOfDelimitersSeparatesWords() throws Exception {
+        assertTrue(mMatcher.containsAny("new-york"));
+        assertTrue(mMatcher.containsAny("  new,\n\tyork!"));
+        assertFalse(mMatcher.containsAny("new yorker"));
+        assertFalse(mMatcher.containsAny("renew york"));
+        assertFalse(mMatcher.containsAny(""));
+    }
+
+    @Test
+    public void testUnknownWordsBreakPhrases() throws Exception {
+        assertEquals(mMatcher.countMatches("new big york"), 0);
+        assertEquals(mMatcher.countMatches("new new york york city"), 2);
+    }
+
+    @Test
+    public void testCaseInsensitive() throws Exception {
+        PhraseMatcher matcher = PhraseMatcher.builder()
+                .caseInsensitive()
+                .build(ImmutableSet.of("New York", "STRASSE Ärger"));
+
+        assertEquals(matcher.searchIn("NEW york, strasse ärger"), ImmutableSet.of("New York", "STRASSE Ärger"));
+        assertFalse(mMatcher.containsAny("New York"));
+    }
+
+    @Test
+    public void testUnicodeWords() throws Exception {
+        PhraseMatcher matcher = PhraseMatcher.builder()
+                .build(ImmutableSet.of("café au lait", "café", "𝐀 b"));
+
+        assertEquals(matcher.searchIn("un café au lait"), ImmutableSet.of("café au lait"));
+        assertEquals(matcher.searchIn("café!"), ImmutableSet.of("café"));
+        assertEquals(matcher.searchIn("cafe"), ImmutableSet.of());
+        assertEquals(matcher.searchIn("𝐀 b"), ImmutableSet.of("𝐀 b"));
+    }
+
+    @Test
+    public void testSpans() throws Exception {
+        assertEquals(mMatcher.spans("a new  york city"), Arrays.asList(
+                new AhoCorasickMatcher.Span<>(2, 11, "new york"),
+                new AhoCorasickMatcher.Span<>(2, 16, "new york city"),
+                new AhoCorasickMatcher.Span<>(7, 16, "york city")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPhraseWithoutWords() throws Exception {
+        PhraseMatcher.builder().build(ImmutableSet.of("new york", " - "));
+    }
+
+    @Test
+    public void testAgreesWithWholeWordMatcher() throws Exception {
+        Random random = new Random(11);
+        String[] vocabulary = {"a", "an", "the", "new", "york", "city", "of", "times", "big", "apple"};
+        for (int round = 0; round < 100; round++) {
+            Set<String> phrases = new LinkedHashSet<>();
+            int count = 1 + random.nextInt(30);
+            while (phrases.size() < count) {
+                phrases.add(randomWords(random, vocabulary, 1 + random.nextInt(4)));
+            }
+            String text = randomWords(random, vocabulary, 300);
+
+            PhraseMatcher matcher = PhraseMatcher.builder().build(phrases);
+            AhoCorasickMatcher wholeWords = AhoCorasickMatcher.builder().matchWholeWords().build(phrases);
+            assertEquals(matcher.countMatches(text), wholeWords.countMatches(text));
+            assertEquals(matcher.searchIn(text), wholeWords.searchIn(text));
+        }
+    }
+
+    private static String randomWords(Random random, String[] vocabulary, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(vocabulary[random.nextInt(vocabulary.length)]);
+        }
+        return words.toString();
+    }
+}
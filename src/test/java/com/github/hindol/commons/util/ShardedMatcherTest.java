@@ -0,0 +1,152 @@
+package com.github.hindol.commons.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class ShardedMatcherTest {
+
+    private final ShardedMatcher mMatcher = ShardedMatcher.builder()
+            .withShards(3)
+            .build(ImmutableSet.of("moo", "one", "on", "ne"));
+
+    @Test
+    public void testSearchIn() throws Exception {
+        assertEquals(mMatcher.searchIn("one moon ago"), ImmutableSet.of("moo", "one", "on", "ne"));
+        assertEquals(mMatcher.searchIn("nothing here"), ImmutableSet.of());
+    }
+
+    @Test
+    public void testSearchInWithOutputs() throws Exception {
+        ShardedMatcher matcher = ShardedMatcher.builder()
+                .withShards(2)
+                .build(ImmutableMap.of("one", 1, "two", 2));
+
+        assertEquals(matcher.searchIn("two or one"), ImmutableSet.of(1, 2));
+    }
+
+    @Test
+    public void testContainsAnyAndCountMatches() throws Exception {
+        assertTrue(mMatcher.containsAny("a moose"));
+        assertFalse(mMatcher.containsAny("nothing here"));
+        assertEquals(mMatcher.countMatches("one moon"), 5);
+    }
+
+    @Test(timeOut = 10000)
+    public void testContainsAnyDoesNotWaitForEveryShard() throws Exception {
+        // Once the shards are built, only the first search handed to the executor ever runs
+        AtomicInteger searches = new AtomicInteger(-1);
+        Executor executor = (Runnable task) -> {
+            if (searches.get() < 0 || searches.getAndIncrement() == 0) {
+                new Thread(task).start();
+            }
+        };
+        ShardedMatcher matcher = ShardedMatcher.builder()
+                .withShards(4)
+                .withExecutor(executor)
+                .build(ImmutableSet.of("moo", "one", "two", "three", "four", "five", "six"));
+        String needle = null;
+        for (String candidate : Arrays.asList("moo", "one", "two", "three", "four", "five", "six")) {
+            if (matcher.shardOf(candidate) == 0) {
+                needle = candidate;
+            }
+        }
+        assertNotNull(needle);
+        searches.set(0);
+
+        StringBuilder haystack = new StringBuilder(needle);
+        while (haystack.length() < 100000) {
+            haystack.append(" xyz");
+        }
+        assertTrue(matcher.containsAny(haystack));
+        assertEquals(searches.get(), 4);
+    }
+
+    @Test
+    public void testSpans() throws Exception {
+        assertEquals(mMatcher.spans("one"), Arrays.asList(
+                new AhoCorasickMatcher.Span<>(0, 2, "on"),
+                new AhoCorasickMatcher.Span<>(0, 3, "one"),
+                new AhoCorasickMatcher.Span<>(1, 3, "ne")));
+    }
+
+    @Test
+    public void testRebuildShard() throws Exception {
+        ShardedMatcher matcher = ShardedMatcher.builder()
+                .withShards(4)
+                .build(ImmutableSet.of("moo", "one"));
+        int shard = matcher.shardOf("moo");
+        Set<String> needles = new LinkedHashSet<>();
+        for (String needle : Arrays.asList("moo", "one", "two", "three", "four", "five", "six")) {
+            if (matcher.shardOf(needle) == shard && !needle.equals("moo")) {
+                needles.add(needle);
+            }
+        }
+
+        matcher.rebuildShard(shard, needles);
+
+        assertFalse(matcher.containsAny("moo"));
+        for (String needle : needles) {
+            assertTrue(matcher.containsAny(needle));
+        }
+        if (matcher.shardOf("one") != shard) {
+            assertTrue(matcher.containsAny("one"));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRebuildShardWithNeedleOfAnotherShard() throws Exception {
+        String needle = "moo";
+        mMatcher.rebuildShard((mMatcher.shardOf(needle) + 1) % mMatcher.shardCount(), ImmutableSet.of(needle));
+    }
+
+    @Test
+    public void testAgreesWithOneMatcher() throws Exception {
+        Random random = new Random(3);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int round = 0; round < 10; round++) {
+                Set<String> needles = new LinkedHashSet<>();
+                int count = 1 + random.nextInt(500);
+                while (needles.size() < count) {
+                    needles.add(randomText(random, 1 + random.nextInt(6)));
+                }
+
+                ShardedMatcher sharded = ShardedMatcher.builder()
+                        .withShards(1 + random.nextInt(8))
+                        .withExecutor(executor)
+                        .build(needles);
+                AhoCorasickMatcher single = AhoCorasickMatcher.builder().build(needles);
+
+                // Short enough to search shard after shard, and long enough to search them in parallel
+                for (String text : Arrays.asList(randomText(random, 1000), randomText(random, 100000))) {
+                    assertEquals(sharded.spans(text), single.spans(text));
+                    assertEquals(sharded.countMatches(text), single.countMatches(text));
+                    assertEquals(sharded.searchIn(text), single.searchIn(text));
+                    assertEquals(sharded.containsAny(text), single.containsAny(text));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append("abcdefg ".charAt(random.nextInt(8)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.hindol.commons.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+public class TenantMatcherTest {
+
+    private final TenantMatcher<String> mMatcher = TenantMatcher.<String>builder()
+            .add("acme", ImmutableSet.of("moo", "one", "on"))
+            .add("globex", ImmutableSet.of("one", "ne"))
+            .add("initech", ImmutableMap.of("one", 1, "moon", 2))
+            .build();
+
+    @Test
+    public void testSearchIn() throws Exception {
+        assertEquals(mMatcher.searchIn("one moon ago", "acme"), ImmutableSet.of("moo", "one", "on"));
+        assertEquals(mMatcher.searchIn("one moon ago", "globex"), ImmutableSet.of("one", "ne"));
+        assertEquals(mMatcher.searchIn("one moon ago", "initech"), ImmutableSet.of(1, 2));
+        assertEquals(mMatcher.searchIn("moo", "globex"), ImmutableSet.of());
+    }
+
+    @Test
+    public void testSearchInWithListener() throws Exception {
+        List<String> found = new ArrayList<>();
+
+        assertTrue(mMatcher.searchIn("moo one", "acme", (String output) -> found.add(output)));
+        assertEquals(found, Arrays.asList("moo", "on", "one"));
+
+        found.clear();
+        assertFalse(mMatcher.searchIn("moo one", "acme", (String output) -> !found.add(output)));
+        assertEquals(found, Arrays.asList("moo"));
+    }
+
+    @Test
+    public void testContainsAnyAndCountMatches() throws Exception {
+        assertTrue(mMatcher.containsAny("a moose", "acme"));
+        assertFalse(mMatcher.containsAny("a moose", "globex"));
+        assertEquals(mMatcher.countMatches("one, one", "globex"), 4);
+        assertEquals(mMatcher.countMatches("one, one", "initech"), 2);
+    }
+
+    @Test
+    public void testLeftmostPicksAmongTheTenantsKeywords() throws Exception {
+        TenantMatcher<Integer> matcher = TenantMatcher.<Integer>builder()
+                .add(1, ImmutableSet.of("abcd", "bc"))
+                .add(2, ImmutableSet.of("bc"))
+                .build();
+
+        assertEquals(matcher.spans("abcd", 1, AhoCorasickMatcher.MatchKind.LEFTMOST_LONGEST),
+                Arrays.asList(new AhoCorasickMatcher.Span<>(0, 4, "abcd")));
+        assertEquals(matcher.spans("abcd", 2, AhoCorasickMatcher.MatchKind.LEFTMOST_LONGEST),
+                Arrays.asList(new AhoCorasickMatcher.Span<>(1, 3, "bc")));
+    }
+
+    @Test
+    public void testOptionsApplyToAllTenants() throws Exception {
+        TenantMatcher<String> matcher = TenantMatcher.<String>builder()
+                .caseInsensitive()
+                .matchWholeWords()
+                .add("a", ImmutableSet.of("New York"))
+                .add("b", ImmutableSet.of("york"))
+                .build();
+
+        assertTrue(matcher.containsAny("NEW YORK", "a"));
+        assertEquals(matcher.spans("new york", "b"), Arrays.asList(new AhoCorasickMatcher.Span<>(4, 8, "york")));
+        assertFalse(matcher.containsAny("yorkshire", "b"));
+    }
+
+    @Test
+    public void testTenants() throws Exception {
+        assertEquals(new ArrayList<>(mMatcher.tenants()), Arrays.asList("acme", "globex", "initech"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownTenant() throws Exception {
+        mMatcher.containsAny("one", "hooli");
+    }
+
+    @Test
+    public void testAgreesWithOneMatcherPerTenant() throws Exception {
+        Random random = new Random(5);
+        for (int round = 0; round < 50; round++) {
+            // The first tenant has every keyword, so that keywords are first added in its order
+            List<String> keywords = new ArrayList<>(randomKeywords(random, 1 + random.nextInt(200)));
+            List<Set<String>> dictionaries = new ArrayList<>();
+            dictionaries.add(new LinkedHashSet<>(keywords));
+            for (int tenant = 1; tenant < 6; tenant++) {
+                Set<String> dictionary = new LinkedHashSet<>();
+                for (String keyword : keywords) {
+                    if (random.nextInt(3) == 0) {
+                        dictionary.add(keyword);
+                    }
+                }
+                dictionaries.add(dictionary);
+            }
+
+            TenantMatcher.Builder<Integer> builder = TenantMatcher.builder();
+            for (int tenant = 0; tenant < dictionaries.size(); tenant++) {
+                builder.add(tenant, dictionaries.get(tenant));
+            }
+            TenantMatcher<Integer> matcher = builder.build();
+
+            String text = randomText(random, 2000);
+            for (int tenant = 0; tenant < dictionaries.size(); tenant++) {
+                AhoCorasickMatcher own = AhoCorasickMatcher.builder().build(dictionaries.get(tenant));
+                for (AhoCorasickMatcher.MatchKind kind : AhoCorasickMatcher.MatchKind.values()) {
+                    assertEquals(matcher.spans(text, tenant, kind), own.spans(text, kind));
+                }
+                assertEquals(matcher.countMatches(text, tenant), own.countMatches(text));
+            }
+        }
+    }
+
+    private static Set<String> randomKeywords(Random random, int count) {
+        Set<String> keywords = new LinkedHashSet<>();
+        while (keywords.size() < count) {
+            keywords.add(randomText(random, 1 + random.nextInt(5)));
+        }
+        return keywords;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append("abcde ".charAt(random.nextInt(6)));
+        }
+        return text.toString();
+    }
+}